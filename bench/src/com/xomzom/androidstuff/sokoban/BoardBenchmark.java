@@ -0,0 +1,229 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.xomzom.androidstuff.sokoban.bench.LevelData;
+
+/**
+ * Benchmarks of the board hot paths. This lives in the board's package so
+ * it can reach the inside square marking directly.
+ *
+ * Each invocation runs over all the bundled levels, or over a single level
+ * when the level parameter is set (for example, -p level=17).
+ *
+ * @author Dedi Hirschfeld
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BoardBenchmark
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of moves tried on each level for the move benchmark.
+     */
+    private final static int MOVE_ATTEMPTS = 400;
+
+    /**
+     * The seed of the random walks, so every run makes the same moves.
+     */
+    private final static long WALK_SEED = 42;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The level to benchmark, or 0 for all the bundled levels.
+     */
+    @Param("0")
+    public int level;
+
+    /**
+     * The text of the benchmarked levels.
+     */
+    private byte[][] m_levelTexts;
+
+    /**
+     * A board for each benchmarked level, at its start position.
+     */
+    private Board[] m_boards;
+
+    /**
+     * For each level, the directions of a random walk of legal moves from
+     * the start position.
+     */
+    private int[][] m_walks;
+
+    /**
+     * The log the move benchmark logs its moves in.
+     */
+    private MoveLog m_moveLog;
+
+    /**
+     * The board the read benchmarks read into.
+     */
+    private Board m_readBoard;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Load the levels, and record a random walk on each.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        m_levelTexts = LevelData.readLevels(level);
+        m_boards = new Board[m_levelTexts.length];
+        m_walks = new int[m_levelTexts.length][];
+        m_moveLog = new MoveLog();
+        m_readBoard = new Board();
+        Random random = new Random(WALK_SEED);
+        for (int i = 0; i < m_levelTexts.length; i++)
+        {
+            Board board = new Board();
+            board.read(m_levelTexts[i], 0, m_levelTexts[i].length);
+            m_walks[i] = recordWalk(board, random);
+            m_boards[i] = board;
+        }
+    }
+
+    /**
+     * Read the levels from a stream.
+     */
+    @Benchmark
+    public void readStream(Blackhole blackhole) throws IOException
+    {
+        for (byte[] text : m_levelTexts)
+        {
+            m_readBoard.read(new ByteArrayInputStream(text));
+            blackhole.consume(m_readBoard.getPlayerX());
+        }
+    }
+
+    /**
+     * Read the levels from their text bytes.
+     */
+    @Benchmark
+    public void readBytes(Blackhole blackhole)
+    {
+        for (byte[] text : m_levelTexts)
+        {
+            m_readBoard.read(text, 0, text.length);
+            blackhole.consume(m_readBoard.getPlayerX());
+        }
+    }
+
+    /**
+     * Play each level's random walk forward, logging the moves as the game
+     * does, and then undo all of it from the log.
+     */
+    @Benchmark
+    public void moveAndUndo(Blackhole blackhole)
+    {
+        for (int i = 0; i < m_boards.length; i++)
+        {
+            Board board = m_boards[i];
+            int[] walk = m_walks[i];
+            for (int move = 0; move < walk.length; move++)
+                m_moveLog.add(board.move(walk[move]));
+            blackhole.consume(board.getZobristKey());
+            while (!m_moveLog.isEmpty())
+                board.undoMove(m_moveLog.removeLast());
+        }
+    }
+
+    /**
+     * Mark the inside squares of each level again.
+     */
+    @Benchmark
+    public void markInsideSquares(Blackhole blackhole)
+    {
+        for (Board board : m_boards)
+        {
+            board.remarkInsideSquares();
+            blackhole.consume(board);
+        }
+    }
+
+    /**
+     * Get the string representation of each level.
+     */
+    @Benchmark
+    public void boardToString(Blackhole blackhole)
+    {
+        for (Board board : m_boards)
+            blackhole.consume(board.toString());
+    }
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Record a random walk of legal moves, leaving the board where it
+     * started.
+     *
+     * @return The directions of the moves.
+     */
+    private static int[] recordWalk(Board board, Random random)
+    {
+        MoveLog log = new MoveLog();
+        for (int attempt = 0; attempt < MOVE_ATTEMPTS; attempt++)
+        {
+            int step = board.move(random.nextInt(4));
+            if (step != Move.STEP_ILLEGAL)
+                log.add(step);
+        }
+
+        int[] walk = new int[log.size()];
+        for (int move = 0; move < walk.length; move++)
+            walk[move] = log.get(move) & Move.STEP_DIR_MASK;
+        while (!log.isEmpty())
+            board.undoMove(log.removeLast());
+        return walk;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import com.xomzom.androidstuff.sokoban.BoardSquare;
+
+/**
+ * The original level parser of Board.read(), kept as a baseline for
+ * ParserBenchmark. It makes one read() call per character, builds a
+ * Vector of Vectors of squares, and then copies them into a 2D array.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LegacyLevelParser
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The player X position in the last parsed level.
+     */
+    private int m_playerX;
+
+    /**
+     * The player Y position in the last parsed level.
+     */
+    private int m_playerY;
+
+    /**
+     * The number of targets without a box in the last parsed level.
+     */
+    private int m_unsolvedTargets;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Parse a level.
+     *
+     * @param inStream The stream to read from.
+     * @return The board squares, indexed by row and then column. Squares
+     * past the end of a short line are null.
+     * @throws IOException if something went wrong in reading the level.
+     */
+    public BoardSquare[][] parse(InputStream inStream) throws IOException
+    {
+        int newPlayerX = -1;
+        int newPlayerY = -1;
+        Vector<Vector<BoardSquare>> newBoardVector =
+            new Vector<Vector<BoardSquare>>(20);
+        int newBoardWidth = 0;
+        int curChar;
+
+        m_unsolvedTargets = 0;
+        do
+        {
+            Vector<BoardSquare> lineContents = new Vector<BoardSquare>(20);
+
+            // Process one line of data.
+            while (true)
+            {
+                curChar = inStream.read();
+                if (curChar == '\n' || curChar == -1)
+                    break;
+                BoardSquare square = new BoardSquare((char)curChar);
+                if (square.isStartPoint())
+                {
+                    newPlayerX = lineContents.size();
+                    newPlayerY = newBoardVector.size();
+                }
+                if (square.isTarget() && !square.hasBox())
+                    m_unsolvedTargets++;
+                lineContents.addElement(square);
+            }
+            if (lineContents.size() > 0)
+                newBoardVector.addElement(lineContents);
+            if (newBoardWidth < lineContents.size())
+                newBoardWidth = lineContents.size();
+        }
+        while (curChar != -1);
+
+        m_playerX = newPlayerX;
+        m_playerY = newPlayerY;
+        return boardFromVector(newBoardVector, newBoardWidth);
+    }
+
+    /**
+     * Get the player X position in the last parsed level.
+     */
+    public int getPlayerX()
+    {
+        return m_playerX;
+    }
+
+    /**
+     * Get the player Y position in the last parsed level.
+     */
+    public int getPlayerY()
+    {
+        return m_playerY;
+    }
+
+    /**
+     * Get the number of targets without a box in the last parsed level.
+     */
+    public int getUnsolvedTargets()
+    {
+        return m_unsolvedTargets;
+    }
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Copy the line vectors into a 2D board array.
+     */
+    private static BoardSquare[][] boardFromVector(
+            Vector<Vector<BoardSquare>> boardVec, int width)
+    {
+        BoardSquare[][] newBoard = new BoardSquare[boardVec.size()][width];
+        for (int curLine = 0; curLine < newBoard.length; curLine++)
+        {
+            Vector<BoardSquare> lineVector = boardVec.elementAt(curLine);
+            int squaresInLine = lineVector.size();
+            for (int curSquare = 0; curSquare < squaresInLine; curSquare++)
+                newBoard[curLine][curSquare] = lineVector.elementAt(curSquare);
+        }
+        return newBoard;
+    }
+}
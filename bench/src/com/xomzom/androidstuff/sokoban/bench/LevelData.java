@@ -0,0 +1,113 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the raw text of the bundled levels for the benchmarks. The level
+ * directory is taken from the sokoban.levels system property, which the
+ * bench build target sets.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelData
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The system property naming the level directory.
+     */
+    public final static String LEVELS_PROPERTY = "sokoban.levels";
+
+    /**
+     * The number of bundled levels.
+     */
+    public final static int LEVEL_COUNT = 355;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Read the text of all the bundled levels.
+     *
+     * @return The level texts; entry n - 1 holds level n.
+     * @throws IOException if a level file couldn't be read.
+     */
+    public static byte[][] readAllLevels() throws IOException
+    {
+        byte[][] levels = new byte[LEVEL_COUNT][];
+        for (int level = 1; level <= LEVEL_COUNT; level++)
+            levels[level - 1] = readLevel(level);
+        return levels;
+    }
+
+    /**
+     * Read the text of the levels a benchmark is parameterized over.
+     *
+     * @param level A level number, or 0 for all the bundled levels.
+     * @return The level texts.
+     * @throws IOException if a level file couldn't be read.
+     */
+    public static byte[][] readLevels(int level) throws IOException
+    {
+        if (level == 0)
+            return readAllLevels();
+        return new byte[][] { readLevel(level) };
+    }
+
+    /**
+     * Read the text of a single bundled level.
+     *
+     * @param level The level number, from 1 to LEVEL_COUNT.
+     * @throws IOException if the level file couldn't be read.
+     */
+    public static byte[] readLevel(int level) throws IOException
+    {
+        File levelDir =
+            new File(System.getProperty(LEVELS_PROPERTY, "assets/levels"));
+        File file = new File(levelDir, "level-" + level + ".txt");
+        byte[] text = new byte[(int)file.length()];
+        InputStream inStream = new FileInputStream(file);
+        try
+        {
+            int length = 0;
+            while (length < text.length)
+            {
+                int bytesRead =
+                    inStream.read(text, length, text.length - length);
+                if (bytesRead == -1)
+                    throw new IOException("Short read of " + file);
+                length += bytesRead;
+            }
+        }
+        finally
+        {
+            inStream.close();
+        }
+        return text;
+    }
+}
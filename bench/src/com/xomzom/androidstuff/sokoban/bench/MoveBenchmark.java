@@ -0,0 +1,230 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * Benchmarks the Move delta lookups, over a fixed random mix of directions
+ * (so the branches can't be predicted from a single direction). The switch
+ * based lookups Move used before the direction tables are kept here as a
+ * baseline.
+ *
+ * @author Dedi Hirschfeld
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MoveBenchmark
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of moves looked up in each invocation.
+     */
+    private final static int MOVE_COUNT = 1024;
+
+    /**
+     * The board width used for the index offset benchmark.
+     */
+    private final static int BOARD_WIDTH = 20;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The moves to look up.
+     */
+    private Move[] m_moves;
+
+    /**
+     * The directions of the moves.
+     */
+    private int[] m_dirs;
+
+    /**
+     * The index offset of each direction, for BOARD_WIDTH.
+     */
+    private int[] m_dirOffsets;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create the moves.
+     */
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        m_moves = new Move[MOVE_COUNT];
+        m_dirs = new int[MOVE_COUNT];
+        for (int i = 0; i < MOVE_COUNT; i++)
+        {
+            m_dirs[i] = random.nextInt(Move.DIR_COUNT);
+            m_moves[i] = new Move(m_dirs[i]);
+        }
+        m_dirOffsets = Move.getIndexOffsets(BOARD_WIDTH);
+    }
+
+    /**
+     * Look up the deltas of all the moves, through the Move objects.
+     *
+     * @return The sum of the deltas, so the lookups can't be optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MOVE_COUNT)
+    public int deltas()
+    {
+        int sum = 0;
+        for (Move move : m_moves)
+            sum += move.getXDelta() * 3 + move.getYDelta();
+        return sum;
+    }
+
+    /**
+     * Look up the deltas of all the directions in the direction tables.
+     *
+     * @return The sum of the deltas, so the lookups can't be optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MOVE_COUNT)
+    public int tableDeltas()
+    {
+        int sum = 0;
+        for (int dir : m_dirs)
+            sum += Move.getXDelta(dir) * 3 + Move.getYDelta(dir);
+        return sum;
+    }
+
+    /**
+     * Look up the deltas of all the directions with a switch, as Move used
+     * to.
+     *
+     * @return The sum of the deltas, so the lookups can't be optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MOVE_COUNT)
+    public int switchDeltas()
+    {
+        int sum = 0;
+        for (int dir : m_dirs)
+            sum += switchXDelta(dir) * 3 + switchYDelta(dir);
+        return sum;
+    }
+
+    /**
+     * Find the neighbour index of a square in each of the directions, with
+     * the index offset table: a single add per move.
+     *
+     * @return The sum of the indices, so the lookups can't be optimized
+     * away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MOVE_COUNT)
+    public int indexOffsets()
+    {
+        int sum = 0;
+        int index = BOARD_WIDTH + 1;
+        for (int dir : m_dirs)
+            sum += index + m_dirOffsets[dir];
+        return sum;
+    }
+
+    /**
+     * Find the neighbour index of a square in each of the directions from
+     * the switch based deltas, as Board used to.
+     *
+     * @return The sum of the indices, so the lookups can't be optimized
+     * away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MOVE_COUNT)
+    public int switchIndexOffsets()
+    {
+        int sum = 0;
+        int x = 1;
+        int y = 1;
+        for (int dir : m_dirs)
+        {
+            sum += (y + switchYDelta(dir)) * BOARD_WIDTH + x +
+                switchXDelta(dir);
+        }
+        return sum;
+    }
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * The switch based 'x' delta lookup.
+     */
+    private static int switchXDelta(int dir)
+    {
+        switch (dir)
+        {
+            case Move.DIR_LEFT:
+                return -1;
+            case Move.DIR_RIGHT:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The switch based 'y' delta lookup.
+     */
+    private static int switchYDelta(int dir)
+    {
+        switch (dir)
+        {
+            case Move.DIR_UP:
+                return -1;
+            case Move.DIR_DOWN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.bench;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.xomzom.androidstuff.sokoban.Board;
+
+/**
+ * Compares the bulk level parser with the original one, by parsing all the
+ * bundled levels in each invocation.
+ *
+ * The legacy benchmark reads through a BufferedInputStream, as the game
+ * used to. Note that Board.read() also marks the inside and dead squares
+ * and sets up the Zobrist keys, which the legacy parser doesn't, so the
+ * measured difference understates the parsing speedup.
+ *
+ * @author Dedi Hirschfeld
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParserBenchmark
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The text of all the bundled levels.
+     */
+    private byte[][] m_levels;
+
+    /**
+     * The board levels are read into.
+     */
+    private Board m_board;
+
+    /**
+     * The original parser.
+     */
+    private LegacyLevelParser m_legacyParser;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Load the levels.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        m_levels = LevelData.readAllLevels();
+        m_board = new Board();
+        m_legacyParser = new LegacyLevelParser();
+    }
+
+    /**
+     * Parse all levels with the original per-character parser.
+     */
+    @Benchmark
+    public void legacyParser(Blackhole blackhole) throws IOException
+    {
+        for (byte[] level : m_levels)
+        {
+            blackhole.consume(m_legacyParser.parse(new BufferedInputStream(
+                    new ByteArrayInputStream(level))));
+        }
+    }
+
+    /**
+     * Read all levels through Board.read(InputStream).
+     */
+    @Benchmark
+    public void boardReadStream(Blackhole blackhole) throws IOException
+    {
+        for (byte[] level : m_levels)
+        {
+            m_board.read(new ByteArrayInputStream(level));
+            blackhole.consume(m_board.getPlayerX());
+        }
+    }
+
+    /**
+     * Read all levels straight from their text bytes.
+     */
+    @Benchmark
+    public void boardReadBytes(Blackhole blackhole)
+    {
+        for (byte[] level : m_levels)
+        {
+            m_board.read(level, 0, level.length);
+            blackhole.consume(m_board.getPlayerX());
+        }
+    }
+}
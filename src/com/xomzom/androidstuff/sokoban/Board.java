@@ -22,12 +22,11 @@ package com.xomzom.androidstuff.sokoban;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Vector;
-
-import android.content.res.AssetManager;
 
 /**
- * The Sokoban board.
+ * The Sokoban board. The board doesn't depend on any android classes, so it
+ * (and everything built on top of it, like the solver) can also be used
+ * headless, on a plain JVM.
  *
  * @author Dedi Hirschfeld
  */
@@ -38,24 +37,54 @@ public class Board
     //
 
     /**
-     * The prefix for level files.
+     * The seed for the Zobrist key tables. The tables are derived from the
+     * square index only, so the same level always gets the same keys.
+     */
+    private final static long ZOBRIST_SEED = 0x5DEECE66DL;
+
+    /**
+     * The initial size of the buffer levels are read into.
      */
-    private final static String LEVEL_FILE_PREFIX =
-    	"levels/level-";
+    private final static int READ_BUFFER_SIZE = 1024;
 
     /**
-     * The postfix for level files.
+     * The most squares a single move can change: the player's old and new
+     * squares, and the square a box is pushed to.
      */
-    private final static String LEVEL_FILE_POSTFIX = ".txt";
+    public final static int MAX_CHANGED_SQUARES = 3;
 
     //
     // Members.
     //
 
     /**
-     * The array of board squares.
+     * The board squares, packed as content bytes (see BoardSquare for the
+     * bit masks). The board is surrounded by a border of wall squares, one
+     * square wide, so every neighbour of a board square is in the array and
+     * no neighbour lookup needs a bounds check. Squares are stored row by
+     * row, so the square at (x, y) is at index (y + 1) * m_stride + x + 1
+     * (see getSquareIndex()). Squares that were not defined in the original
+     * board data are left as 0.
+     */
+    private byte[] m_squares = new byte[0];
+
+    /**
+     * The length of a row in m_squares: the board width plus the border.
      */
-    private BoardSquare[][] m_boardSquares;
+    private int m_stride;
+
+    /**
+     * The square index offset of each move direction (see
+     * Move.getIndexOffsets()).
+     */
+    private int[] m_dirOffsets = Move.getIndexOffsets(0);
+
+    /**
+     * The buffer read() reads level text into. It's kept between reads, so
+     * reading level after level into the same board doesn't allocate it
+     * again.
+     */
+    private byte[] m_readBuffer = new byte[0];
 
     /**
      * The x-coordinate of the player piece.
@@ -82,93 +111,316 @@ public class Board
      */
     private int m_unsolvedTargets;
 
+    /**
+     * The Zobrist key of a box on each square, by square index.
+     */
+    private long[] m_boxZobrist = new long[0];
+
+    /**
+     * The Zobrist key of the player standing on each square, by square index.
+     */
+    private long[] m_playerZobrist = new long[0];
+
+    /**
+     * The Zobrist key of the current box positions - the XOR of the box keys
+     * of all the squares that have a box. It is kept up to date by
+     * moveBox().
+     */
+    private long m_boxKey;
+
+    /**
+     * Scratch area for the flood fills: the queue of square indices. After
+     * findReachableSquares(), it holds the reachable squares; after
+     * findWalk(), the directions of the walk, last one first.
+     */
+    private int[] m_fillQueue = new int[0];
+
+    /**
+     * Scratch area for the flood fills: the fill marks. A square was reached
+     * by the last fill if its mark equals m_fillStamp, so the marks never
+     * need to be cleared between fills.
+     */
+    private int[] m_fillMarks = new int[0];
+
+    /**
+     * The stamp of the last flood fill.
+     */
+    private int m_fillStamp;
+
+    /**
+     * Scratch area for findWalk(): the direction each square was entered
+     * in, by square index.
+     */
+    private byte[] m_fillDirs = new byte[0];
+
+    /**
+     * The number of moves in the walk found by the last findWalk().
+     */
+    private int m_walkLength;
+
+    /**
+     * The number of squares reached by the last findReachableSquares().
+     */
+    private int m_reachableCount;
+
+    /**
+     * The smallest square index reached by the last findReachableSquares().
+     */
+    private int m_reachableTopLeft;
+
+    /**
+     * Result flag of isFrozen(): whether a box found frozen is off target.
+     */
+    private boolean m_frozenOffTarget;
+
+    /**
+     * The indices of the squares changed by the last move() or undoMove().
+     */
+    private final int[] m_changedSquares = new int[MAX_CHANGED_SQUARES];
+
+    /**
+     * The number of squares changed by the last move() or undoMove().
+     */
+    private int m_changedSquareCount;
+
+    /**
+     * The level this board was read or reset to, at its start, or null if
+     * nothing was read yet.
+     */
+    private LevelTemplate m_template;
+
 
     //
     // Operations.
     //
 
     /**
-     * Read The board from a level file.
+     * Create an empty board. Call read() to actually read a level into it.
+     */
+    public Board()
+    {
+    }
+
+    /**
+     * Create a copy of another board, in its current position. The copy can
+     * then be played independently of the original, for example by a search
+     * running on another thread.
      *
-     * @param level The level to read.
-     * @param assetsMgr The application's asset manager
-     * @throws IOException if something went wrong in reading the board.
+     * @param other The board to copy.
      */
-    public void read(int level, AssetManager assetsMgr) throws IOException
+    public Board(Board other)
     {
-        read(LEVEL_FILE_PREFIX + level + LEVEL_FILE_POSTFIX, assetsMgr);
+        m_squares = other.m_squares.clone();
+        m_playerX = other.m_playerX;
+        m_playerY = other.m_playerY;
+        m_boardWidth = other.m_boardWidth;
+        m_boardHeight = other.m_boardHeight;
+        m_stride = other.m_stride;
+        m_unsolvedTargets = other.m_unsolvedTargets;
+        // The key and offset tables never change once created, so they can
+        // be shared.
+        m_dirOffsets = other.m_dirOffsets;
+        m_boxZobrist = other.m_boxZobrist;
+        m_playerZobrist = other.m_playerZobrist;
+        m_boxKey = other.m_boxKey;
+        m_template = other.m_template;
+        initFillScratch();
     }
 
     /**
-     * Read The board from a file.
+     * Create a board at the start of the given level.
      *
-     * @param filename The filename to read from.
-     * @param assetsMgr The application's asset manager
-     * @throws IOException if something went wrong in reading the board.
+     * @param template The level.
      */
-    private void read(String filename, AssetManager assetsMgr)
-        throws IOException
+    public Board(LevelTemplate template)
     {
-        //InputStream inStream = new FileInputStream(filename);
-        InputStream inStream = assetsMgr.open(filename);
-        read(inStream);
-        inStream.close();
+        reset(template);
     }
 
     /**
-     * Read The board from an input stream.
+     * Read The board from an input stream. The whole stream is read in bulk
+     * into the board's read buffer, and then parsed by read(byte[], int,
+     * int), so the stream doesn't need to be buffered.
      *
-     * @param filename The filename to read from.
+     * @param inStream The stream to read from.
      * @throws IOException if something went wrong in reading the board.
      */
-    private void read(InputStream inStream) throws IOException
+    public void read(InputStream inStream) throws IOException
     {
-        int newPlayerX = -1;
-        int newPlayerY = -1;
-        Vector<Vector<BoardSquare>> newBoardVector =
-            new Vector<Vector<BoardSquare>>(20);
-        int newBoardWidth = 0;
-        int curChar;
+        int length = 0;
+        int bytesRead;
+        if (m_readBuffer.length < READ_BUFFER_SIZE)
+            m_readBuffer = new byte[READ_BUFFER_SIZE];
+        while ((bytesRead = inStream.read(m_readBuffer, length,
+                m_readBuffer.length - length)) != -1)
+        {
+            length += bytesRead;
+            if (length == m_readBuffer.length)
+            {
+                byte[] newBuffer = new byte[m_readBuffer.length * 2];
+                System.arraycopy(m_readBuffer, 0, newBuffer, 0, length);
+                m_readBuffer = newBuffer;
+            }
+        }
+        read(m_readBuffer, 0, length);
+    }
 
-        m_unsolvedTargets= 0;
-        do
+    /**
+     * Read the board from level file text held in a byte array. The text is
+     * parsed in two passes: the first measures the board, and the second
+     * writes the squares straight into the new board storage.
+     *
+     * Empty lines are skipped, and carriage returns are ignored, so level
+     * files with DOS line ends read the same as others.
+     *
+     * @param data The array holding the level text.
+     * @param offset The offset of the level text in the array.
+     * @param length The length of the level text.
+     */
+    public void read(byte[] data, int offset, int length)
+    {
+        int end = offset + length;
+
+        // First pass - measure the board.
+        int newBoardWidth = 0;
+        int newBoardHeight = 0;
+        int lineLength = 0;
+        for (int pos = offset; pos <= end; pos++)
         {
-            Vector<BoardSquare> lineContents = new Vector<BoardSquare>(20);
+            int curChar = (pos < end ? data[pos] : '\n');
+            if (curChar == '\n')
+            {
+                if (lineLength > 0)
+                    newBoardHeight++;
+                if (newBoardWidth < lineLength)
+                    newBoardWidth = lineLength;
+                lineLength = 0;
+            }
+            else if (curChar != '\r')
+            {
+                lineLength++;
+            }
+        }
 
-            // Process one line of data.
-            while(true)
+        // Second pass - fill the board. Lines shorter than the board width
+        // are padded with undefined squares.
+        int newStride = newBoardWidth + 2;
+        byte[] newSquares = new byte[newStride * (newBoardHeight + 2)];
+        for (int index = 0; index < newSquares.length; index++)
+            newSquares[index] = BoardSquare.IS_UNDEFINED;
+        int newPlayerX = -1;
+        int newPlayerY = -1;
+        int row = 0;
+        int column = 0;
+        m_unsolvedTargets = 0;
+        for (int pos = offset; pos < end; pos++)
+        {
+            byte curChar = data[pos];
+            if (curChar == '\n')
             {
-                curChar = inStream.read();
-                if (curChar == '\n' || curChar == -1)
-                    break;
-                BoardSquare square = new BoardSquare((char)curChar);
-                if (square.isStartPoint())
-                {
-                    newPlayerX = lineContents.size();
-                    newPlayerY = newBoardVector.size();
-                }
-                if (square.isTarget() && !square.hasBox())
-                {
-                    m_unsolvedTargets++;
-                }
-                lineContents.addElement(square);
+                if (column > 0)
+                    row++;
+                column = 0;
+                continue;
+            }
+            if (curChar == '\r')
+                continue;
+            byte square = BoardSquare.contentByteFromChar((char)curChar);
+            if ((square & BoardSquare.IS_START_POINT) != 0)
+            {
+                newPlayerX = column;
+                newPlayerY = row;
             }
-            if (lineContents.size() > 0)
-                newBoardVector.addElement(lineContents);
-            if (newBoardWidth < lineContents.size())
-                newBoardWidth = lineContents.size();
+            if ((square & (BoardSquare.IS_TARGET | BoardSquare.HAS_BOX))
+                    == BoardSquare.IS_TARGET)
+            {
+                m_unsolvedTargets++;
+            }
+            newSquares[(row + 1) * newStride + ++column] = square;
         }
-        while (curChar != -1);
 
-        m_boardSquares = boardFromVector(newBoardVector, newBoardWidth);
+        // Wall off the border.
+        int lastRow = newSquares.length - newStride;
+        for (int index = 0; index < newStride; index++)
+        {
+            newSquares[index] = BoardSquare.IS_WALL;
+            newSquares[lastRow + index] = BoardSquare.IS_WALL;
+        }
+        for (int index = newStride; index < lastRow; index += newStride)
+        {
+            newSquares[index] = BoardSquare.IS_WALL;
+            newSquares[index + newStride - 1] = BoardSquare.IS_WALL;
+        }
+
+        m_squares = newSquares;
+        m_stride = newStride;
         m_playerX = newPlayerX;
         m_playerY = newPlayerY;
-        m_boardHeight = m_boardSquares.length;
+        m_boardHeight = newBoardHeight;
         m_boardWidth = newBoardWidth;
+        m_dirOffsets = Move.getIndexOffsets(m_stride);
+        m_changedSquareCount = 0;
 
         // markInsideSquares needs a point inside the board to start it's
         // marking. it seems safe to assume that the player is inside the board.
+        initFillScratch();
         markInsideSquares(m_playerX, m_playerY);
+        markDeadSquares();
+        initZobristKeys();
+        m_template = new LevelTemplate(m_squares.clone(),
+                m_boardWidth, m_boardHeight, m_stride, m_playerX, m_playerY,
+                m_unsolvedTargets, m_dirOffsets, m_boxZobrist, m_playerZobrist,
+                m_boxKey);
+    }
+
+    /**
+     * Set the board to the start of the given level. The template's squares
+     * are copied into the board's own array (which is reused if it has the
+     * right size), and all the other tables are shared, so this is much
+     * cheaper than reading the level again.
+     *
+     * @param template The level.
+     */
+    public void reset(LevelTemplate template)
+    {
+        byte[] squares = template.m_squares;
+        boolean isResized = (m_squares.length != squares.length);
+        if (isResized)
+            m_squares = new byte[squares.length];
+        System.arraycopy(squares, 0, m_squares, 0, squares.length);
+        m_stride = template.m_stride;
+        m_playerX = template.m_playerX;
+        m_playerY = template.m_playerY;
+        m_boardWidth = template.m_boardWidth;
+        m_boardHeight = template.m_boardHeight;
+        m_unsolvedTargets = template.m_unsolvedTargets;
+        m_dirOffsets = template.m_dirOffsets;
+        m_boxZobrist = template.m_boxZobrist;
+        m_playerZobrist = template.m_playerZobrist;
+        m_boxKey = template.m_boxKey;
+        m_changedSquareCount = 0;
+        m_template = template;
+        if (isResized)
+            initFillScratch();
+    }
+
+    /**
+     * Set the board back to the start of its level.
+     */
+    public void restart()
+    {
+        if (m_template != null)
+            reset(m_template);
+    }
+
+    /**
+     * Get the level this board was last read or reset to, at its start.
+     *
+     * @return The level, or null if nothing was read yet.
+     */
+    public LevelTemplate getTemplate()
+    {
+        return m_template;
     }
 
     /**
@@ -176,68 +428,186 @@ public class Board
      * a flood-fill algorithm. When called with a point inside the board, it
      * marks it, and all other connected points until walls are reached.
      *
-     * The algorithm used is a simple recursive fill - chosen for it's
-     * simplicity. The downside, though, is that a large board might cause a
-     * stack overflow. But it seems like current Android screens aren't big
-     * enough to display such large boards anyway.
+     * The fill is iterative, using the board's fill queue, so it works on
+     * boards of any size (a recursive fill could overflow the stack). It
+     * can't leave the array, since the board border is all walls.
      *
      * @param initialX The initial point X coordinate
      * @param initialY The initial point Y coordinate
      */
     private void markInsideSquares(int initialX, int initialY)
     {
-        BoardSquare square = getSquare(initialX, initialY);
-        if (square == null || square.isInsideBoard() || square.isWall())
+        if (!isOnBoard(initialX, initialY))
             return;
 
-        square.setIsInsideBoard(true);
-        markInsideSquares(initialX - 1, initialY);
-        markInsideSquares(initialX + 1, initialY);
-        markInsideSquares(initialX, initialY - 1);
-        markInsideSquares(initialX, initialY + 1);
+        int head = 0;
+        int tail = 0;
+        int initialIndex = getSquareIndex(initialX, initialY);
+        if (!markInsideSquare(initialIndex))
+            return;
+        m_fillQueue[tail++] = initialIndex;
+        while (head < tail)
+        {
+            int index = m_fillQueue[head++];
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+            {
+                int next = index + m_dirOffsets[dir];
+                if (markInsideSquare(next))
+                    m_fillQueue[tail++] = next;
+            }
+        }
     }
 
     /**
-     * Helper method - create a board array from a vector of vectors of
-     * squares.
-     * @param boardVec The vector to read from.
-     * @param width The new board width.
-     * @return
+     * Helper method for markInsideSquares: mark a single square as inside the
+     * board, unless it is a wall or an undefined square, or is already
+     * marked. Like walls, undefined squares stop the fill.
+     *
+     * @return true if the square was marked now.
      */
-    private BoardSquare[][] boardFromVector(Vector<Vector<BoardSquare>>boardVec,
-            int width)
+    private boolean markInsideSquare(int index)
     {
-        BoardSquare[][] newBoard = new BoardSquare[boardVec.size()][width];
-        for (int curLine = 0; curLine < newBoard.length; curLine++)
+        byte square = m_squares[index];
+        if ((square & (BoardSquare.IS_INSIDE_BOARD | BoardSquare.IS_WALL |
+                       BoardSquare.IS_UNDEFINED)) != 0)
+            return false;
+        m_squares[index] = (byte)(square | BoardSquare.IS_INSIDE_BOARD);
+        return true;
+    }
+
+    /**
+     * Helper method: mark all the dead squares - inside squares from which a
+     * box can never be pushed to a target. This works backwards: starting
+     * from each target, it finds all the squares a box could be pulled to
+     * (a pull needs two free squares in the pull direction, one for the box
+     * and one for the player). A box can only be pushed to a target from
+     * those squares, so all other inside squares are dead.
+     *
+     * This is done once, when the level is read, so checking a square later
+     * costs a single bit test.
+     */
+    private void markDeadSquares()
+    {
+        int stamp = nextFillStamp();
+        int tail = 0;
+        for (int index = 0; index < m_squares.length; index++)
+        {
+            if (isFloorSquare(index) &&
+                (m_squares[index] & BoardSquare.IS_TARGET) != 0)
+            {
+                m_fillMarks[index] = stamp;
+                m_fillQueue[tail++] = index;
+            }
+        }
+
+        int head = 0;
+        while (head < tail)
+        {
+            int index = m_fillQueue[head++];
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+                tail = markPullable(index, m_dirOffsets[dir], stamp, tail);
+        }
+
+        for (int index = 0; index < m_squares.length; index++)
         {
-            Vector<BoardSquare> lineVector =
-                (Vector<BoardSquare>)boardVec.elementAt(curLine);
-            int squaresInLine = lineVector.size();
-            for (int curSquare = 0; curSquare < squaresInLine; curSquare++)
+            if (isFloorSquare(index) && m_fillMarks[index] != stamp)
             {
-                newBoard[curLine][curSquare] =
-                    (BoardSquare)lineVector.elementAt(curSquare);
+                m_squares[index] |= BoardSquare.IS_DEAD_SQUARE;
             }
         }
-        return newBoard;
     }
 
     /**
-     * Get the board string representation (for debugging).
+     * Helper method for markDeadSquares: add the square a box could be pulled
+     * to from the given square, if it wasn't reached yet.
+     *
+     * @return The new fill queue tail.
+     */
+    private int markPullable(int index, int step, int stamp, int tail)
+    {
+        int boxIndex = index + step;
+        if (!isFloorSquare(boxIndex) || !isFloorSquare(boxIndex + step) ||
+            m_fillMarks[boxIndex] == stamp)
+            return tail;
+        m_fillMarks[boxIndex] = stamp;
+        m_fillQueue[tail] = boxIndex;
+        return tail + 1;
+    }
+
+    /**
+     * Helper method: check whether the square at the given index is inside
+     * the board and not a wall.
+     */
+    private boolean isFloorSquare(int index)
+    {
+        return (m_squares[index] &
+                (BoardSquare.IS_INSIDE_BOARD | BoardSquare.IS_WALL)) ==
+            BoardSquare.IS_INSIDE_BOARD;
+    }
+
+    /**
+     * Helper method - allocate the flood fill scratch area for the current
+     * board size.
+     */
+    private void initFillScratch()
+    {
+        m_fillQueue = new int[m_squares.length];
+        m_fillMarks = new int[m_squares.length];
+        m_fillDirs = new byte[m_squares.length];
+        m_fillStamp = 0;
+        m_reachableCount = 0;
+        m_walkLength = 0;
+    }
+
+    /**
+     * Helper method - create the Zobrist key tables for the current board
+     * size, and calculate the key of the current box positions.
+     */
+    private void initZobristKeys()
+    {
+        int squareCount = m_squares.length;
+        m_boxZobrist = new long[squareCount];
+        m_playerZobrist = new long[squareCount];
+        m_boxKey = 0;
+        for (int i = 0; i < squareCount; i++)
+        {
+            m_boxZobrist[i] = zobristValue(2 * i);
+            m_playerZobrist[i] = zobristValue(2 * i + 1);
+            if ((m_squares[i] & BoardSquare.HAS_BOX) != 0)
+                m_boxKey ^= m_boxZobrist[i];
+        }
+    }
+
+    /**
+     * Helper method - get the pseudo random Zobrist value with the given
+     * number. This is the SplitMix64 mixing function, which gives well
+     * distributed 64 bit values without needing a random generator object.
+     */
+    private static long zobristValue(int number)
+    {
+        long z = ZOBRIST_SEED + (number + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Get the board string representation (for debugging), in the level
+     * file format, with the player where it is now.
      */
     public String toString()
     {
         StringBuffer buffer = new StringBuffer();
+        int playerIndex = getSquareIndex(m_playerX, m_playerY);
 
         for (int i = 0; i < m_boardHeight; i++)
         {
+            int rowStart = getSquareIndex(0, i);
             for (int j = 0; j < m_boardWidth; j++)
             {
-                BoardSquare square = m_boardSquares[i][j];
-                if (square != null)
-                {
-                    buffer.append(square.toChar());
-                }
+                buffer.append(BoardSquare.charFromContentByte(
+                        m_squares[rowStart + j],
+                        rowStart + j == playerIndex));
             }
             if ( i < m_boardHeight - 1)
                 buffer.append('\n');
@@ -264,20 +634,154 @@ public class Board
     }
 
     /**
-     * Get board square at the given position. The returned square should
-     * be treated as read-only, and shouldn't be changed. The square might be
-     * undefined (if it was not defined in the original board data), in which
-     * case null is returned.
+     * Get a read-only view of the board square at the given position. This
+     * creates a new view object on every call, so code that scans the board
+     * should prefer the isWall()/hasBox()/isTarget()/isInsideBoard()
+     * accessors. If the position is outside the board, or the square is
+     * undefined (past the end of a short level line), null is returned.
      *
      * @return the contents of the square, or null if the square is undefined.
      */
     public BoardSquare getSquare(int x, int y)
     {
-        try {
-            return m_boardSquares[y][x];
-        } catch (ArrayIndexOutOfBoundsException e) {
+        if (!isOnBoard(x, y))
             return null;
-        }
+        byte square = m_squares[getSquareIndex(x, y)];
+        if ((square & BoardSquare.IS_UNDEFINED) != 0)
+            return null;
+        return new BoardSquare(square);
+    }
+
+    /**
+     * Check whether a position is on the board.
+     */
+    public boolean isOnBoard(int x, int y)
+    {
+        return x >= 0 && x < m_boardWidth && y >= 0 && y < m_boardHeight;
+    }
+
+    /**
+     * Get the index of the square at the given position. Squares are
+     * numbered row by row, including a one square wide border of walls
+     * around the board, so the neighbour of a square in direction dir is at
+     * index + Move.getIndexOffsets(getStride())[dir]. This is valid for any
+     * position on the board or its border (x from -1 to the board width,
+     * and y from -1 to the board height), and doesn't check its arguments.
+     *
+     * @return The square index.
+     */
+    public int getSquareIndex(int x, int y)
+    {
+        return (y + 1) * m_stride + x + 1;
+    }
+
+    /**
+     * Get the X coordinate of the square with the given index.
+     */
+    public int getSquareX(int index)
+    {
+        return index % m_stride - 1;
+    }
+
+    /**
+     * Get the Y coordinate of the square with the given index.
+     */
+    public int getSquareY(int index)
+    {
+        return index / m_stride - 1;
+    }
+
+    /**
+     * Get the length of a row of square indices: the board width, plus the
+     * border on both sides.
+     */
+    public int getStride()
+    {
+        return m_stride;
+    }
+
+    /**
+     * Get the number of square indices, including the border.
+     */
+    public int getSquareCount()
+    {
+        return m_squares.length;
+    }
+
+    /**
+     * The fast variant of isWall(x, y): the index (see getSquareIndex()) is
+     * not checked.
+     */
+    public boolean isWallAt(int index)
+    {
+        return (m_squares[index] & BoardSquare.IS_WALL) != 0;
+    }
+
+    /**
+     * The fast variant of hasBox(x, y): the index is not checked.
+     */
+    public boolean hasBoxAt(int index)
+    {
+        return (m_squares[index] & BoardSquare.HAS_BOX) != 0;
+    }
+
+    /**
+     * The fast variant of isTarget(x, y): the index is not checked.
+     */
+    public boolean isTargetAt(int index)
+    {
+        return (m_squares[index] & BoardSquare.IS_TARGET) != 0;
+    }
+
+    /**
+     * The fast variant of isInsideBoard(x, y): the index is not checked.
+     */
+    public boolean isInsideBoardAt(int index)
+    {
+        return (m_squares[index] & BoardSquare.IS_INSIDE_BOARD) != 0;
+    }
+
+    /**
+     * The fast variant of isDeadSquare(x, y): the index is not checked.
+     */
+    public boolean isDeadSquareAt(int index)
+    {
+        return (m_squares[index] & BoardSquare.IS_DEAD_SQUARE) != 0;
+    }
+
+    /**
+     * @return true if the square at the given position is a wall square.
+     * Positions off the board are not walls; the same goes for the other
+     * position checks bellow.
+     */
+    public boolean isWall(int x, int y)
+    {
+        return (getContents(x, y) & BoardSquare.IS_WALL) != 0;
+    }
+
+    /**
+     * @return true if the square at the given position has a box on it.
+     */
+    public boolean hasBox(int x, int y)
+    {
+        return (getContents(x, y) & BoardSquare.HAS_BOX) != 0;
+    }
+
+    /**
+     * @return true if the square at the given position is a target square.
+     */
+    public boolean isTarget(int x, int y)
+    {
+        return (getContents(x, y) & BoardSquare.IS_TARGET) != 0;
+    }
+
+    /**
+     * @return true if the square at the given position is inside the game
+     * board (that is, surrounded by walls).
+     */
+    public boolean isInsideBoard(int x, int y)
+    {
+        return (getContents(x, y) & BoardSquare.IS_INSIDE_BOARD) != 0;
     }
 
     /**
@@ -298,69 +802,384 @@ public class Board
         return m_playerY;
     }
 
+    /**
+     * Put the player at the given position, without checking that it can
+     * actually walk there. This is meant for search code, which moves the
+     * player around the area it can reach before each push, and for
+     * restoring a saved position. The position must be an empty floor square.
+     *
+     * @param x The new player X coordinate.
+     * @param y The new player Y coordinate.
+     */
+    public void setPlayerPosition(int x, int y)
+    {
+        m_playerX = x;
+        m_playerY = y;
+    }
+
+    /**
+     * Put the boxes on the given squares, and take them off all the others.
+     * Like setPlayerPosition(), this doesn't check that the position can be
+     * reached by playing; it is meant for restoring a saved position. The
+     * squares must be inside floor squares.
+     *
+     * @param boxes The box square indices (see getSquareIndex()).
+     * @param count The number of boxes.
+     */
+    public void setBoxPositions(int[] boxes, int count)
+    {
+        for (int index = 0; index < m_squares.length; index++)
+            m_squares[index] &= ~BoardSquare.HAS_BOX;
+        m_boxKey = 0;
+        for (int i = 0; i < count; i++)
+        {
+            m_squares[boxes[i]] |= BoardSquare.HAS_BOX;
+            m_boxKey ^= m_boxZobrist[boxes[i]];
+        }
+        m_unsolvedTargets = 0;
+        for (int index = 0; index < m_squares.length; index++)
+        {
+            if ((m_squares[index] & (BoardSquare.IS_TARGET |
+                    BoardSquare.HAS_BOX)) == BoardSquare.IS_TARGET)
+                m_unsolvedTargets++;
+        }
+        m_changedSquareCount = 0;
+    }
+
+    /**
+     * Find the area the player can reach from its current position without
+     * pushing any box. The fill uses scratch buffers owned by the board, so
+     * it doesn't allocate anything, and can be called as often as needed
+     * (for example, by search code at every node). The results are valid
+     * until the next call, or until the board changes.
+     *
+     * Squares are identified by their index (see getSquareIndex()).
+     *
+     * @return The number of reachable squares, including the player's own.
+     */
+    public int findReachableSquares()
+    {
+        int stamp = nextFillStamp();
+        int start = getSquareIndex(m_playerX, m_playerY);
+        int head = 0;
+        int tail = 0;
+        m_reachableTopLeft = start;
+        if (isOnBoard(m_playerX, m_playerY))
+        {
+            m_fillMarks[start] = stamp;
+            m_fillQueue[tail++] = start;
+        }
+        while (head < tail)
+        {
+            int index = m_fillQueue[head++];
+            if (index < m_reachableTopLeft)
+                m_reachableTopLeft = index;
+            tail = markReachable(index - 1, stamp, tail);
+            tail = markReachable(index + 1, stamp, tail);
+            tail = markReachable(index - m_stride, stamp, tail);
+            tail = markReachable(index + m_stride, stamp, tail);
+        }
+        m_reachableCount = tail;
+        return tail;
+    }
+
+    /**
+     * Get one of the squares found by the last findReachableSquares(), in the
+     * order they were reached.
+     *
+     * @param n The number of the square, from 0 to the reachable count - 1.
+     * @return The square index.
+     */
+    public int getReachableSquare(int n)
+    {
+        return m_fillQueue[n];
+    }
+
+    /**
+     * Get the top-left square found by the last findReachableSquares() - the
+     * one with the smallest index. Since all positions with the same boxes
+     * and the player in the same area have the same top-left square, it
+     * serves as a normalized player position.
+     *
+     * @return The square index.
+     */
+    public int getReachableTopLeft()
+    {
+        return m_reachableTopLeft;
+    }
+
+    /**
+     * Check whether the given square was found reachable by the last
+     * findReachableSquares().
+     */
+    public boolean isReachable(int x, int y)
+    {
+        if (!isOnBoard(x, y))
+            return false;
+        return m_fillMarks[getSquareIndex(x, y)] == m_fillStamp &&
+            m_reachableCount > 0;
+    }
+
+    /**
+     * Find a shortest walk from the player's position to the given square,
+     * without pushing any box. Like findReachableSquares(), this uses the
+     * board's fill scratch buffers and doesn't allocate; the results of
+     * the last findReachableSquares() are gone after it. The walk is valid
+     * until the next fill, or until the board changes, so callers that
+     * play it should read it all first (see getWalkDir()).
+     *
+     * @param targetIndex The target square index (see getSquareIndex()).
+     * It is not checked.
+     * @return The number of moves in the walk (0 if the player is already
+     * there), or -1 if the player can't get to the square.
+     */
+    public int findWalk(int targetIndex)
+    {
+        int stamp = nextFillStamp();
+        int start = getSquareIndex(m_playerX, m_playerY);
+        m_reachableCount = 0;
+        m_walkLength = 0;
+        if (targetIndex == start)
+            return 0;
+
+        int head = 0;
+        int tail = 0;
+        m_fillMarks[start] = stamp;
+        m_fillQueue[tail++] = start;
+        while (head < tail && m_fillMarks[targetIndex] != stamp)
+        {
+            int index = m_fillQueue[head++];
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+            {
+                int next = index + m_dirOffsets[dir];
+                int newTail = markReachable(next, stamp, tail);
+                if (newTail != tail)
+                {
+                    m_fillDirs[next] = (byte)dir;
+                    tail = newTail;
+                }
+            }
+        }
+        if (m_fillMarks[targetIndex] != stamp)
+            return -1;
+
+        // Walk back from the target, keeping the directions in the queue.
+        for (int index = targetIndex; index != start;
+             index -= m_dirOffsets[m_fillDirs[index]])
+        {
+            m_fillQueue[m_walkLength++] = m_fillDirs[index];
+        }
+        return m_walkLength;
+    }
+
+    /**
+     * Get one of the moves of the walk found by the last findWalk().
+     *
+     * @param n The number of the move, from 0 to the walk length - 1.
+     * @return The move direction, one of the Move.DIR_* constants.
+     */
+    public int getWalkDir(int n)
+    {
+        return m_fillQueue[m_walkLength - 1 - n];
+    }
+
+    /**
+     * @return true if the square at the given position is a dead square - an
+     * inside square from which a box can never be pushed to a target.
+     */
+    public boolean isDeadSquare(int x, int y)
+    {
+        return (getContents(x, y) & BoardSquare.IS_DEAD_SQUARE) != 0;
+    }
+
+    /**
+     * Check for a corral deadlock: an area the player can't get into, with
+     * an empty target in it, closed off by walls and by boxes that can never
+     * move again (see isFrozen()). No box can ever get to such a target.
+     *
+     * Unlike the checks done by move(), this scans the whole board, so it is
+     * meant to be called once per position by search code (or in the game,
+     * after a push). It uses the flood fill scratch area, so it overwrites the
+     * results of the last findReachableSquares().
+     *
+     * @return true if the current position has a corral deadlock.
+     */
+    public boolean isCorralDeadlock()
+    {
+        findReachableSquares();
+        int reachableStamp = m_fillStamp;
+        // nextFillStamp() leaves room for this second stamp.
+        int corralStamp = ++m_fillStamp;
+
+        for (int index = 0; index < m_squares.length; index++)
+        {
+            if (m_fillMarks[index] == reachableStamp ||
+                m_fillMarks[index] == corralStamp ||
+                !isFreeSquare(index))
+                continue;
+
+            // A new corral - fill it, checking its squares and its boxes.
+            boolean hasEmptyTarget = false;
+            boolean isClosed = true;
+            int head = 0;
+            int tail = 0;
+            m_fillMarks[index] = corralStamp;
+            m_fillQueue[tail++] = index;
+            while (head < tail)
+            {
+                int cell = m_fillQueue[head++];
+                if ((m_squares[cell] & BoardSquare.IS_TARGET) != 0)
+                    hasEmptyTarget = true;
+                for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+                {
+                    int next = cell + m_dirOffsets[dir];
+                    if (isFreeSquare(next))
+                    {
+                        if (m_fillMarks[next] != corralStamp)
+                        {
+                            m_fillMarks[next] = corralStamp;
+                            m_fillQueue[tail++] = next;
+                        }
+                    }
+                    else if (isClosed &&
+                             (m_squares[next] & BoardSquare.HAS_BOX) != 0 &&
+                             !isFrozen(next))
+                    {
+                        isClosed = false;
+                    }
+                }
+            }
+            if (isClosed && hasEmptyTarget)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the 64 bit Zobrist key of the current position - the box positions
+     * and the player position. Two positions of the same level with the same
+     * key are, with overwhelming probability, the same position, so the key
+     * can be used to compare and hash positions without scanning the board.
+     * The key is kept up to date by move() and undoMove(), at O(1) cost.
+     *
+     * @return The position key.
+     */
+    public long getZobristKey()
+    {
+        if (!isOnBoard(m_playerX, m_playerY))
+            return m_boxKey;
+        return m_boxKey ^ m_playerZobrist[getSquareIndex(m_playerX, m_playerY)];
+    }
+
+    /**
+     * Get the Zobrist key of the box positions alone. Search code can
+     * combine it with getPlayerZobristKey() of a normalized player position,
+     * to get a key that ignores where the player stands in its reachable
+     * area.
+     *
+     * @return The key of the box positions.
+     */
+    public long getBoxZobristKey()
+    {
+        return m_boxKey;
+    }
+
+    /**
+     * Get the Zobrist key component of the player standing on the given
+     * square.
+     *
+     * @param x The square X coordinate.
+     * @param y The square Y coordinate.
+     * @return The key component, to be XORed with the box key.
+     */
+    public long getPlayerZobristKey(int x, int y)
+    {
+        return m_playerZobrist[getSquareIndex(x, y)];
+    }
+
     /**
      * Try to perform a move on the board, making sure it is legal.
-     * @param move The move to perform.
+     * @param move The move to perform. Its moving and deadlock flags are set
+     * to describe the move done.
      * @return true if the move could be performed, false if it was illegal.
      */
     public boolean move(Move move)
     {
-        boolean moveOk = false;
-        int xDelta = move.getXDelta();
-        int yDelta = move.getYDelta();
+        int step = move(move.getDir());
+        if (step == Move.STEP_ILLEGAL)
+            return false;
+        move.setMoving((step & Move.STEP_PUSH) != 0);
+        move.setDeadlock((step & Move.STEP_DEADLOCK) != 0);
+        return true;
+    }
+
+    /**
+     * Try to perform a move in the given direction, making sure it is legal.
+     * This doesn't allocate anything, so it is the one to use for long runs
+     * of moves.
+     *
+     * @param dir The move direction, one of the Move.DIR_* constants.
+     * @return The step code of the move done (see Move), or
+     * Move.STEP_ILLEGAL if the move was illegal.
+     */
+    public int move(int dir)
+    {
+        int offset = m_dirOffsets[dir];
 
         // First, let's figure out if the move is legal. The assumption
         // is, the game area is closed on all sides with walls.
         // Otherwise, the code bellow could throw an exception:
-        int targetX = m_playerX + xDelta;
-        int targetY = m_playerY + yDelta;
-        BoardSquare playerTargetSquare = getSquare(targetX, targetY);
-        BoardSquare newBoxSquare = null;
-        if (!playerTargetSquare.isWall())
+        int targetIndex = getSquareIndex(m_playerX, m_playerY) + offset;
+        byte playerTargetSquare = m_squares[targetIndex];
+        if ((playerTargetSquare & BoardSquare.IS_WALL) != 0)
+            return Move.STEP_ILLEGAL;
+
+        int newBoxIndex = -1;
+        if ((playerTargetSquare & BoardSquare.HAS_BOX) != 0)
         {
-            if (!playerTargetSquare.hasBox())
-            {
-                moveOk = true;
-            }
-            else // We're moving to a boxed position.
-            {
-                int newBoxX = targetX + xDelta;
-                int newBoxY = targetY + yDelta;
-                newBoxSquare = getSquare(newBoxX, newBoxY);
-                moveOk = !newBoxSquare.hasBox() && !newBoxSquare.isWall();
-            }
+            // We're moving to a boxed position.
+            newBoxIndex = targetIndex + offset;
+            byte newBoxSquare = m_squares[newBoxIndex];
+            if ((newBoxSquare &
+                (BoardSquare.HAS_BOX | BoardSquare.IS_WALL)) != 0)
+                return Move.STEP_ILLEGAL;
         }
 
         // Now do the actual move.
-        if (moveOk)
-        {
-            m_playerX = targetX;
-            m_playerY = targetY;
+        m_changedSquares[0] = targetIndex - offset;
+        m_changedSquares[1] = targetIndex;
+        m_changedSquareCount = 2;
+        m_playerX += Move.getXDelta(dir);
+        m_playerY += Move.getYDelta(dir);
+        if (newBoxIndex == -1)
+            return dir;
 
-            if (newBoxSquare != null)
-            {
-                move.setMoving(true);
-                moveBox(playerTargetSquare, newBoxSquare);
-            }
-        }
-        return moveOk;
+        m_changedSquares[m_changedSquareCount++] = newBoxIndex;
+        moveBox(targetIndex, newBoxIndex);
+        int step = dir | Move.STEP_PUSH;
+        if (isDeadlockPush(newBoxIndex))
+            step |= Move.STEP_DEADLOCK;
+        return step;
     }
 
     /**
      * Helper method - move the box from one square to another
-     * @param srcSquare - the original square.
-     * @param targetSquare - the target to move the box to.
+     * @param srcIndex - the index of the original square.
+     * @param targetIndex - the index of the square to move the box to.
      */
-    private void moveBox(BoardSquare srcSquare, BoardSquare targetSquare)
+    private void moveBox(int srcIndex, int targetIndex)
     {
-        srcSquare.setBox(false);
-        targetSquare.setBox(true);
-        if (srcSquare.isTarget())
+        byte srcSquare = m_squares[srcIndex];
+        byte targetSquare = m_squares[targetIndex];
+        m_squares[srcIndex] = (byte)(srcSquare & ~BoardSquare.HAS_BOX);
+        m_squares[targetIndex] = (byte)(targetSquare | BoardSquare.HAS_BOX);
+        m_boxKey ^= m_boxZobrist[srcIndex] ^ m_boxZobrist[targetIndex];
+        if ((srcSquare & BoardSquare.IS_TARGET) != 0)
         {
             m_unsolvedTargets++;
         }
 
-        if (targetSquare.isTarget())
+        if ((targetSquare & BoardSquare.IS_TARGET) != 0)
         {
             m_unsolvedTargets--;
         }
@@ -375,20 +1194,55 @@ public class Board
      */
     public void undoMove(Move move)
     {
-        int xDelta = move.getXDelta();
-        int yDelta = move.getYDelta();
+        undoMove(move.getStep());
+    }
 
-        if (move.isMoving())
+    /**
+     * Undo a move done in the board, given its step code. The same rules as
+     * for undoMove(Move) apply.
+     *
+     * @param step The step code returned by move(int) for the move.
+     */
+    public void undoMove(int step)
+    {
+        int dir = step & Move.STEP_DIR_MASK;
+        int playerIndex = getSquareIndex(m_playerX, m_playerY);
+        m_changedSquares[0] = playerIndex;
+        m_changedSquares[1] = playerIndex - m_dirOffsets[dir];
+        m_changedSquareCount = 2;
+        if ((step & Move.STEP_PUSH) != 0)
         {
-            int boxX = m_playerX + xDelta;
-            int boxY = m_playerY + yDelta;
-            BoardSquare boxSquarePostMove = getSquare(boxX, boxY);
-            BoardSquare boxSquarePreMove = getSquare(m_playerX, m_playerY);
-            moveBox(boxSquarePostMove, boxSquarePreMove);
+            int boxIndex = playerIndex + m_dirOffsets[dir];
+            moveBox(boxIndex, playerIndex);
+            m_changedSquares[m_changedSquareCount++] = boxIndex;
         }
 
-        m_playerX = m_playerX - xDelta;
-        m_playerY = m_playerY - yDelta;
+        m_playerX -= Move.getXDelta(dir);
+        m_playerY -= Move.getYDelta(dir);
+    }
+
+    /**
+     * Get the number of squares changed by the last move() or undoMove(),
+     * so views can redraw just those. An illegal move changes nothing, and
+     * leaves the squares of the move before it.
+     *
+     * @return The number of changed squares, up to MAX_CHANGED_SQUARES.
+     */
+    public int getChangedSquareCount()
+    {
+        return m_changedSquareCount;
+    }
+
+    /**
+     * Get one of the squares changed by the last move() or undoMove().
+     *
+     * @param n The number of the square, from 0 to the changed square
+     * count - 1.
+     * @return The square index (see getSquareIndex()).
+     */
+    public int getChangedSquare(int n)
+    {
+        return m_changedSquares[n];
     }
 
     /**
@@ -398,4 +1252,140 @@ public class Board
     {
         return m_unsolvedTargets == 0;
     }
+
+    /**
+     * Helper method - check whether a box that was just pushed to the given
+     * square is in a deadlock: either the square is dead, or the box is frozen
+     * off a target. Both checks only look at the box's close neighbourhood,
+     * so this is cheap enough to do on every push.
+     */
+    private boolean isDeadlockPush(int boxIndex)
+    {
+        if ((m_squares[boxIndex] & BoardSquare.IS_DEAD_SQUARE) != 0)
+            return true;
+        m_frozenOffTarget = false;
+        return isFrozen(boxIndex) && m_frozenOffTarget;
+    }
+
+    /**
+     * Helper method - check whether the box on the given square is frozen:
+     * it can't be pushed along either axis, now or ever, because it is
+     * blocked by walls, by other frozen boxes, or by dead squares on both
+     * sides. While checking the neighbouring boxes, the box is treated as a
+     * wall, so mutually blocking boxes are detected.
+     *
+     * If the box is frozen, m_frozenOffTarget is set when any of the boxes
+     * found frozen with it is not on a target.
+     */
+    private boolean isFrozen(int boxIndex)
+    {
+        boolean wasOffTarget = m_frozenOffTarget;
+        byte square = m_squares[boxIndex];
+        m_squares[boxIndex] = (byte)(square | BoardSquare.IS_WALL);
+        boolean frozen = isBlocked(boxIndex, 1) &&
+            isBlocked(boxIndex, m_stride);
+        m_squares[boxIndex] = square;
+
+        if (!frozen)
+            m_frozenOffTarget = wasOffTarget;
+        else if ((square & BoardSquare.IS_TARGET) == 0)
+            m_frozenOffTarget = true;
+        return frozen;
+    }
+
+    /**
+     * Helper method for isFrozen: check whether the box on the given square
+     * is blocked along one axis.
+     *
+     * @param boxIndex The box square.
+     * @param step The index step along the axis (1 or the board width).
+     */
+    private boolean isBlocked(int boxIndex, int step)
+    {
+        byte before = m_squares[boxIndex - step];
+        byte after = m_squares[boxIndex + step];
+        if (((before | after) & BoardSquare.IS_WALL) != 0)
+            return true;
+        if ((before & after & BoardSquare.IS_DEAD_SQUARE) != 0)
+            return true;
+        if ((before & BoardSquare.HAS_BOX) != 0 && isFrozen(boxIndex - step))
+            return true;
+        return (after & BoardSquare.HAS_BOX) != 0 && isFrozen(boxIndex + step);
+    }
+
+    /**
+     * Helper method: check whether the square at the given index is an inside
+     * square with no wall and no box.
+     */
+    private boolean isFreeSquare(int index)
+    {
+        return (m_squares[index] & (BoardSquare.IS_INSIDE_BOARD |
+                BoardSquare.IS_WALL | BoardSquare.HAS_BOX)) ==
+            BoardSquare.IS_INSIDE_BOARD;
+    }
+
+    /**
+     * Helper method - get a new flood fill stamp. The marks are cleared when
+     * the stamp is about to wrap, leaving room for callers that need two
+     * consecutive stamps.
+     */
+    private int nextFillStamp()
+    {
+        if (m_fillStamp >= Integer.MAX_VALUE - 2)
+        {
+            for (int i = 0; i < m_fillMarks.length; i++)
+                m_fillMarks[i] = 0;
+            m_fillStamp = 0;
+        }
+        return ++m_fillStamp;
+    }
+
+    /**
+     * Helper method for findReachableSquares: add a square to the fill, if it
+     * is an inside square with no wall and no box that wasn't reached yet.
+     * The fill starts from a board square, and the board border is all
+     * walls, so it never walks off the array.
+     *
+     * @return The new fill queue tail.
+     */
+    private int markReachable(int index, int stamp, int tail)
+    {
+        if (m_fillMarks[index] == stamp)
+            return tail;
+        byte square = m_squares[index];
+        if ((square & (BoardSquare.IS_INSIDE_BOARD | BoardSquare.IS_WALL |
+                       BoardSquare.HAS_BOX)) != BoardSquare.IS_INSIDE_BOARD)
+            return tail;
+        m_fillMarks[index] = stamp;
+        m_fillQueue[tail] = index;
+        return tail + 1;
+    }
+
+    /**
+     * Helper method - get the content byte of the square at the given
+     * position, or 0 (an undefined square) if the position is outside the
+     * board.
+     */
+    private byte getContents(int x, int y)
+    {
+        if (!isOnBoard(x, y))
+            return 0;
+        return m_squares[getSquareIndex(x, y)];
+    }
+
+
+    //
+    // Package operations, used by the benchmarks.
+    //
+
+    /**
+     * Clear the inside marks of all squares, and mark them again from the
+     * player position, as read() does.
+     */
+    void remarkInsideSquares()
+    {
+        for (int index = 0; index < m_squares.length; index++)
+            m_squares[index] &= ~BoardSquare.IS_INSIDE_BOARD;
+        markInsideSquares(m_playerX, m_playerY);
+    }
 }
@@ -22,8 +22,11 @@ package com.xomzom.androidstuff.sokoban;
 
 /**
  * A single Sokoban board square.
- * Because the square is read from a text file, each square is constructed
- * based on an encoded character.
+ * The board keeps its squares packed as content bytes (see the bit masks
+ * bellow), so a square object is only a read-only view over one such byte,
+ * created on demand by Board.getSquare(). This class also holds the helpers
+ * for converting between content bytes and the encoded characters used in
+ * the level files.
  *
  * Encoded char meaning:</br>
  *
@@ -48,28 +51,41 @@ public class BoardSquare
      * Mask for a wall in this square. If true, no other bit can be
      * turned on.
      */
-    private final static byte IS_WALL = 0x01;
+    final static byte IS_WALL = 0x01;
 
     /**
      * Mask for a box on this square.
      */
-    private final static byte HAS_BOX = 0x02;
+    final static byte HAS_BOX = 0x02;
 
     /**
      * Mask for a target square.
      */
-    private final static byte IS_TARGET = 0x04;
+    final static byte IS_TARGET = 0x04;
 
     /**
      * Mask for player starting point. At some point, we can get rid of this,
      * since the board square doesn't actually do anything with it but read it.
      */
-    private final static byte IS_START_POINT = 0x08;
+    final static byte IS_START_POINT = 0x08;
 
     /**
      *  Mask for the 'isInsideBoard' flag.
      */
-    private final static byte IS_INSIDE_BOARD = 0x10;
+    final static byte IS_INSIDE_BOARD = 0x10;
+
+    /**
+     * Mask for the 'isDeadSquare' flag - an inside square from which a box
+     * can never be pushed to any target.
+     */
+    final static byte IS_DEAD_SQUARE = 0x20;
+
+    /**
+     * Mask for the 'isUndefined' flag - a square past the end of a level
+     * line that is shorter than the board width. Undefined squares are
+     * never inside the board.
+     */
+    final static byte IS_UNDEFINED = 0x40;
 
     /**
      * A string of known characters, each in a position representing it's
@@ -100,6 +116,17 @@ public class BoardSquare
 
     }
 
+    /**
+     * Create a board square view over a packed content byte, as stored by
+     * the board.
+     *
+     * @param contents The square content byte.
+     */
+    BoardSquare(byte contents)
+    {
+        m_squareContents = contents;
+    }
+
     /**
      * @return true if the given square is a walll square.
      */
@@ -116,23 +143,6 @@ public class BoardSquare
         return (m_squareContents & HAS_BOX) != 0;
     }
 
-    /**
-     * Put or remove a box from this square.
-     *
-     * @param isThere. True to put a box, false to remove it.
-     */
-    public void setBox(boolean isThere)
-    {
-        if (isThere)
-        {
-            m_squareContents |= HAS_BOX;
-        }
-        else
-        {
-            m_squareContents &= (~HAS_BOX);
-        }
-    }
-
     /**
      * Return the 'is_inside_board' flag. This is set to true for all squares
      *  that are inside the game board (that is, that are surounded by walls),
@@ -144,19 +154,13 @@ public class BoardSquare
     }
 
     /**
-     * Set the 'isInsideBoard' flag.
+     * Return the 'isDeadSquare' flag. This is set to true for inside squares
+     * from which a box can never be pushed to any target, so pushing a box
+     * there loses the game.
      */
-    public void setIsInsideBoard(boolean isInside)
+    public boolean isDeadSquare()
     {
-        if (isInside)
-        {
-            m_squareContents |= IS_INSIDE_BOARD;
-        }
-        else
-        {
-            m_squareContents &= (~IS_INSIDE_BOARD);
-        }
-
+        return (m_squareContents & IS_DEAD_SQUARE) != 0;
     }
 
     /**
@@ -181,7 +185,7 @@ public class BoardSquare
      * @param encoded The encoded char
      * @return A byte representing the square content.
      */
-    private byte contentByteFromChar(char encoded)
+    static byte contentByteFromChar(char encoded)
     {
         int charIndex = ENCODED_CHARS.indexOf(encoded);
         return (charIndex > 0 ? (byte)charIndex : 0);
@@ -193,6 +197,38 @@ public class BoardSquare
      */
     public char toChar()
     {
-        return ENCODED_CHARS.charAt(m_squareContents);
+        return charFromContentByte(m_squareContents);
+    }
+
+    /**
+     * Get the encoded char for the given content byte, with the player on
+     * the square if it is the start point. The calculated flags are
+     * ignored, since they are not part of the encoding.
+     *
+     * @param contents The square content byte.
+     * @return The one-char encoded square.
+     */
+    static char charFromContentByte(byte contents)
+    {
+        return charFromContentByte(contents,
+                                   (contents & IS_START_POINT) != 0);
+    }
+
+    /**
+     * Get the encoded char for the given content byte, with or without the
+     * player on the square. The start point flag is ignored, since boxes
+     * can be pushed onto the start point, and the player moves off it.
+     *
+     * @param contents The square content byte.
+     * @param hasPlayer Whether the player is on the square. Ignored if the
+     * square is a wall or has a box.
+     * @return The one-char encoded square.
+     */
+    static char charFromContentByte(byte contents, boolean hasPlayer)
+    {
+        int encoded = contents & (IS_WALL | HAS_BOX | IS_TARGET);
+        if (hasPlayer && (encoded & (IS_WALL | HAS_BOX)) == 0)
+            encoded |= IS_START_POINT;
+        return ENCODED_CHARS.charAt(encoded);
     }
 }
@@ -21,6 +21,8 @@ package com.xomzom.androidstuff.sokoban;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 /**
@@ -33,6 +35,41 @@ import android.graphics.drawable.Drawable;
  */
 public class GameResourceManager {
 
+    //
+    // Constants.
+    //
+
+    /**
+     * Index of the wall sprite in the sprite atlas.
+     */
+    public final static int SPRITE_WALL = 0;
+
+    /**
+     * Index of the floor tile sprite in the sprite atlas.
+     */
+    public final static int SPRITE_TILE = 1;
+
+    /**
+     * Index of the box target sprite in the sprite atlas.
+     */
+    public final static int SPRITE_TARGET = 2;
+
+    /**
+     * Index of the box sprite in the sprite atlas.
+     */
+    public final static int SPRITE_BOX = 3;
+
+    /**
+     * Index of the player sprite in the sprite atlas.
+     */
+    public final static int SPRITE_PLAYER = 4;
+
+    /**
+     * The number of sprites in the sprite atlas.
+     */
+    public final static int SPRITE_COUNT = 5;
+
+
     //
     // Members.
     //
@@ -67,6 +104,17 @@ public class GameResourceManager {
      */
     private Bitmap m_wallBitmap;
 
+    /**
+     * All the sprites, pre-scaled to m_atlasSquareSize and laid out in a
+     * single row, in SPRITE_XXX order. null until first requested.
+     */
+    private Bitmap m_atlas;
+
+    /**
+     * The square size m_atlas was built for.
+     */
+    private int m_atlasSquareSize;
+
 
     //
     // Operations.
@@ -123,9 +171,79 @@ public class GameResourceManager {
         return m_wallBitmap;
     }
 
+    /**
+     * Get the sprite atlas for the given square size. The atlas is only
+     * rebuilt when the square size changes; the atlas for the previous size
+     * is recycled, so bitmaps from earlier calls must not be used after
+     * calling this with a different size.
+     *
+     * @param squareSize The width and height of a game square, in pixels.
+     * @return The atlas. Use getSpriteBounds() to find a sprite within it.
+     */
+    public Bitmap getSpriteAtlas(int squareSize)
+    {
+        if ((m_atlas == null) || (m_atlasSquareSize != squareSize))
+        {
+            if (m_atlas != null)
+                m_atlas.recycle();
+            m_atlas = createAtlas(squareSize);
+            m_atlasSquareSize = squareSize;
+        }
+        return m_atlas;
+    }
+
+    /**
+     * Get the bounds of a sprite within the atlas built for the given square
+     * size. The sprite is drawn without scaling when the destination has the
+     * same size as these bounds.
+     *
+     * @param sprite The sprite (SPRITE_XXX).
+     * @param squareSize The square size the atlas was built for.
+     * @param bounds Set to the sprite bounds.
+     */
+    public static void getSpriteBounds(int sprite, int squareSize,
+                                       Rect bounds)
+    {
+        int spriteSize = getSpriteSize(squareSize);
+        int left = sprite * squareSize;
+        bounds.set(left, 0, left + spriteSize, spriteSize);
+    }
+
+    /**
+     * Get the size at which sprites are drawn for the given square size.
+     * Sprites leave a one pixel gap between squares, as they always did.
+     */
+    public static int getSpriteSize(int squareSize)
+    {
+        return (squareSize > 1) ? squareSize - 1 : 1;
+    }
+
+    /**
+     * Build the sprite atlas for the given square size.
+     */
+    private Bitmap createAtlas(int squareSize)
+    {
+        Bitmap atlas = Bitmap.createBitmap(SPRITE_COUNT * squareSize,
+                squareSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect bounds = new Rect();
+        Bitmap[] sprites = new Bitmap[SPRITE_COUNT];
+        sprites[SPRITE_WALL] = m_wallBitmap;
+        sprites[SPRITE_TILE] = m_tileBitmap;
+        sprites[SPRITE_TARGET] = m_targetBitmap;
+        sprites[SPRITE_BOX] = m_boxBitmap;
+        sprites[SPRITE_PLAYER] = m_playerBitmap;
+        for (int sprite = 0; sprite < SPRITE_COUNT; sprite++)
+        {
+            getSpriteBounds(sprite, squareSize, bounds);
+            canvas.drawBitmap(sprites[sprite], null, bounds, paint);
+        }
+        return atlas;
+    }
+
     /**
      * Load the needed bitmaps.
-     * TODO: Resize when needed, instead of on every draw.
      */
     private void loadBitmaps()
     {
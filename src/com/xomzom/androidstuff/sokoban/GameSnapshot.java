@@ -0,0 +1,347 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A snapshot of a game in progress: the level number, the box and player
+ * positions, and the whole move log, so the game can go on exactly where
+ * it was left, undo history included.
+ *
+ * A snapshot is captured on the UI thread, which only copies the state
+ * (the move log is copied as packed bytes, so this is quick even for very
+ * long games), and can then be saved on any thread.
+ *
+ * Snapshot layout (all numbers are big endian):</br>
+ *
+ * header  - magic "SOKS", u32 version, u32 level number</br>
+ * board   - u16 width, u16 height, u16 player x, u16 player y, u32 box
+ *           count, and the box positions as u32 y * width + x, in
+ *           increasing order</br>
+ * log     - u32 move count, and the step codes packed two to a byte, as
+ *           in MoveLog</br>
+ *
+ * @author Dedi Hirschfeld
+ */
+public class GameSnapshot
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The snapshot file magic.
+     */
+    public final static int MAGIC = 0x534f4b53; // "SOKS", big endian.
+
+    /**
+     * The current snapshot format version.
+     */
+    public final static int VERSION = 1;
+
+    /**
+     * The suffix of the file a snapshot is written to before it replaces
+     * the previous one.
+     */
+    private final static String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The largest move log a snapshot may hold; anything bigger means the
+     * file is corrupt.
+     */
+    private final static int MAX_MOVES = 1 << 26;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The level number.
+     */
+    private int m_level;
+
+    /**
+     * The board width.
+     */
+    private int m_boardWidth;
+
+    /**
+     * The board height.
+     */
+    private int m_boardHeight;
+
+    /**
+     * The player's X coordinate.
+     */
+    private int m_playerX;
+
+    /**
+     * The player's Y coordinate.
+     */
+    private int m_playerY;
+
+    /**
+     * The box positions, as y * width + x, in increasing order.
+     */
+    private int[] m_boxes;
+
+    /**
+     * A copy of the move log.
+     */
+    private final MoveLog m_moveLog = new MoveLog();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an empty snapshot, to be read into.
+     */
+    private GameSnapshot()
+    {
+    }
+
+    /**
+     * Capture the state of a game.
+     *
+     * @param level The level number.
+     * @param board The game board.
+     * @param moveLog The log of the moves done since the level start.
+     * @return The snapshot. It shares nothing with the game, so the game
+     * can go on while it is being saved.
+     */
+    public static GameSnapshot capture(int level, Board board,
+                                       MoveLog moveLog)
+    {
+        GameSnapshot snapshot = new GameSnapshot();
+        snapshot.m_level = level;
+        snapshot.m_boardWidth = board.getBoardWidth();
+        snapshot.m_boardHeight = board.getBoardHeight();
+        snapshot.m_playerX = board.getPlayerX();
+        snapshot.m_playerY = board.getPlayerY();
+        int boxCount = 0;
+        int squareCount = board.getSquareCount();
+        for (int index = 0; index < squareCount; index++)
+        {
+            if (board.hasBoxAt(index))
+                boxCount++;
+        }
+        snapshot.m_boxes = new int[boxCount];
+        boxCount = 0;
+        for (int index = 0; index < squareCount; index++)
+        {
+            if (board.hasBoxAt(index))
+            {
+                snapshot.m_boxes[boxCount++] = board.getSquareY(index) *
+                    snapshot.m_boardWidth + board.getSquareX(index);
+            }
+        }
+        snapshot.m_moveLog.copyFrom(moveLog);
+        return snapshot;
+    }
+
+    /**
+     * Read a snapshot from a file.
+     *
+     * @param file The file to read.
+     * @return The snapshot.
+     * @throws IOException if the file couldn't be read, or isn't a snapshot
+     * of the current version.
+     */
+    public static GameSnapshot load(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            GameSnapshot snapshot = new GameSnapshot();
+            snapshot.read(in);
+            return snapshot;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the snapshot to a file. The snapshot is first written to a
+     * temporary file next to it, which then replaces the file, so a write
+     * that doesn't complete leaves the previous snapshot intact.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file couldn't be written.
+     */
+    public void save(File file) throws IOException
+    {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try
+        {
+            write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("Can't rename " + tempFile + " to " + file);
+    }
+
+    /**
+     * Get the level number.
+     */
+    public int getLevel()
+    {
+        return m_level;
+    }
+
+    /**
+     * Get the number of moves in the snapshot's move log.
+     */
+    public int getMoveCount()
+    {
+        return m_moveLog.size();
+    }
+
+    /**
+     * Restore the snapshot into a game. The board must hold the snapshot's
+     * level; normally it has just been set to the level's start. If the
+     * snapshot doesn't fit the board (for example, because the level has
+     * changed since it was saved), nothing is changed.
+     *
+     * @param board The game board.
+     * @param moveLog The game's move log.
+     * @return true if the snapshot was restored, false if it doesn't fit
+     * the board.
+     */
+    public boolean restore(Board board, MoveLog moveLog)
+    {
+        if (board.getBoardWidth() != m_boardWidth ||
+                board.getBoardHeight() != m_boardHeight)
+            return false;
+
+        int levelBoxCount = 0;
+        int squareCount = board.getSquareCount();
+        for (int index = 0; index < squareCount; index++)
+        {
+            if (board.hasBoxAt(index))
+                levelBoxCount++;
+        }
+        if (levelBoxCount != m_boxes.length)
+            return false;
+
+        int playerPos = m_playerY * m_boardWidth + m_playerX;
+        if (!isFloor(board, playerPos))
+            return false;
+        int[] boxes = new int[m_boxes.length];
+        for (int i = 0; i < m_boxes.length; i++)
+        {
+            if (!isFloor(board, m_boxes[i]) || m_boxes[i] == playerPos)
+                return false;
+            boxes[i] = board.getSquareIndex(m_boxes[i] % m_boardWidth,
+                                            m_boxes[i] / m_boardWidth);
+        }
+
+        board.setBoxPositions(boxes, boxes.length);
+        board.setPlayerPosition(m_playerX, m_playerY);
+        moveLog.copyFrom(m_moveLog);
+        return true;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Write the snapshot.
+     */
+    private void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(m_level);
+        out.writeShort(m_boardWidth);
+        out.writeShort(m_boardHeight);
+        out.writeShort(m_playerX);
+        out.writeShort(m_playerY);
+        out.writeInt(m_boxes.length);
+        for (int i = 0; i < m_boxes.length; i++)
+            out.writeInt(m_boxes[i]);
+        m_moveLog.write(out);
+    }
+
+    /**
+     * Read a snapshot written by write().
+     */
+    private void read(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a game snapshot");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+        m_level = in.readInt();
+        m_boardWidth = in.readUnsignedShort();
+        m_boardHeight = in.readUnsignedShort();
+        m_playerX = in.readUnsignedShort();
+        m_playerY = in.readUnsignedShort();
+        long boardSize = (long)m_boardWidth * m_boardHeight;
+        if (m_playerX >= m_boardWidth || m_playerY >= m_boardHeight)
+            throw new IOException("Bad player position");
+        int boxCount = in.readInt();
+        if (boxCount < 0 || boxCount > boardSize)
+            throw new IOException("Bad box count " + boxCount);
+        m_boxes = new int[boxCount];
+        for (int i = 0; i < boxCount; i++)
+        {
+            m_boxes[i] = in.readInt();
+            // The positions are written in increasing order, which also
+            // rules out two boxes on one square.
+            int lowest = (i > 0 ? m_boxes[i - 1] + 1 : 0);
+            if (m_boxes[i] < lowest || m_boxes[i] >= boardSize)
+                throw new IOException("Bad box position " + m_boxes[i]);
+        }
+        m_moveLog.read(in, MAX_MOVES);
+    }
+
+    /**
+     * Helper method - check whether a position (y * width + x) is an inside
+     * square with no wall.
+     */
+    private static boolean isFloor(Board board, int pos)
+    {
+        int index = board.getSquareIndex(pos % board.getBoardWidth(),
+                                         pos / board.getBoardWidth());
+        return board.isInsideBoardAt(index) && !board.isWallAt(index);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small cache of parsed levels, loaded on a background thread. The game
+ * asks the cache to prefetch the levels around the one being played, so
+ * that by the time the player gets to one of them, it is already parsed,
+ * and switching to it doesn't stall the UI thread.
+ *
+ * The cache holds the templates of the most recently used levels, up to its
+ * capacity. Each level is parsed once; readLevel() resets a board to the
+ * cached template, which is an array copy, so restarting or going back to
+ * a level doesn't parse it again.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelCache
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default capacity: the current level, its neighbours, and one more
+     * level being loaded.
+     */
+    public final static int DEFAULT_CAPACITY = 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The level loader.
+     */
+    private final LevelLoader m_loader;
+
+    /**
+     * The single background thread levels are loaded on.
+     */
+    private final ExecutorService m_executor;
+
+    /**
+     * The cached levels, loaded or still loading, in least recently used
+     * order.
+     */
+    private final Map<Integer, Future<LevelTemplate>> m_levels;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a level cache.
+     *
+     * @param loader The loader to load levels with.
+     * @param capacity The maximal number of levels to keep.
+     */
+    public LevelCache(LevelLoader loader, final int capacity)
+    {
+        m_loader = loader;
+        m_levels = new LinkedHashMap<Integer, Future<LevelTemplate>>(capacity + 1,
+                0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, Future<LevelTemplate>> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+        m_executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "LevelCache");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start loading a level in the background, unless it's already cached.
+     *
+     * @param level The level number.
+     */
+    public synchronized void prefetch(int level)
+    {
+        getFuture(level);
+    }
+
+    /**
+     * Set a board to the start of a level. If the level isn't loaded yet,
+     * this waits for it.
+     *
+     * @param level The level number.
+     * @param board The board to set.
+     * @throws IOException if something went wrong in reading the level.
+     */
+    public void readLevel(int level, Board board) throws IOException
+    {
+        Future<LevelTemplate> future;
+        synchronized (this)
+        {
+            future = getFuture(level);
+        }
+
+        try
+        {
+            board.reset(future.get());
+        }
+        catch (ExecutionException e)
+        {
+            // Don't keep the failure, so the level can be tried again.
+            synchronized (this)
+            {
+                m_levels.remove(Integer.valueOf(level));
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            IOException ioException =
+                new IOException("Interrupted while loading level " + level);
+            ioException.initCause(e);
+            throw ioException;
+        }
+    }
+
+    /**
+     * Stop the background thread. Levels that are still loading are
+     * dropped, and the cache must not be used afterwards.
+     */
+    public void shutdown()
+    {
+        m_executor.shutdownNow();
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Get the future of a level, submitting it for loading if it isn't
+     * cached.
+     */
+    private Future<LevelTemplate> getFuture(final int level)
+    {
+        Integer key = Integer.valueOf(level);
+        Future<LevelTemplate> future = m_levels.get(key);
+        if (future == null)
+        {
+            future = m_executor.submit(new Callable<LevelTemplate>()
+            {
+                public LevelTemplate call() throws IOException
+                {
+                    return m_loader.loadLevel(level).getTemplate();
+                }
+            });
+            m_levels.put(key, future);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,657 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A collection of levels in one of the common community formats, all in
+ * a single file:</br>
+ *
+ * .sok / .xsb / .txt - boards as plain text, separated by other lines. A
+ *   board's title is taken from a "Title:" line after it, or else from
+ *   the last text line before it. Other "Key: value" lines after a board
+ *   (author, comments, etc.) are kept as its metadata. Rows may be run
+ *   length encoded ("4#" for "####", '|' between rows), and '-' or '_'
+ *   may stand for floor.</br>
+ * .slc - the XML format, with a Level element per level, holding an L
+ *   element per row. The level title is its Id attribute, and the
+ *   metadata is the rest of the Level tag attributes.</br>
+ *
+ * Opening a collection makes a single pass over the file, recording only
+ * where each level, title and metadata block start and end. No boards are
+ * built until a level is actually read, so even collections of thousands
+ * of levels open quickly and take little memory beyond the file itself,
+ * which is normally memory mapped (see map()).
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelCollection
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The characters that may appear in a plain text board row.
+     */
+    private final static String BOARD_LINE_CHARS =
+        " #$.*@+-_|0123456789";
+
+    /**
+     * The key of the title metadata line.
+     */
+    private final static String TITLE_KEY = "Title";
+
+    /**
+     * The number of ints each level takes in the level table: the board,
+     * title and metadata ranges.
+     */
+    private final static int ENTRY_SIZE = 6;
+
+    /**
+     * Offsets of the fields in a level table entry.
+     */
+    private final static int BOARD_START = 0;
+    private final static int BOARD_END = 1;
+    private final static int TITLE_START = 2;
+    private final static int TITLE_END = 3;
+    private final static int METADATA_START = 4;
+    private final static int METADATA_END = 5;
+
+    /**
+     * The initial size of the buffer read() reads into.
+     */
+    private final static int READ_BUFFER_SIZE = 64 * 1024;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The collection file contents.
+     */
+    private final ByteBuffer m_buffer;
+
+    /**
+     * true if this is an .slc (XML) collection.
+     */
+    private final boolean m_isXml;
+
+    /**
+     * The level table: ENTRY_SIZE ints per level, holding the start and end
+     * offsets of its board, title and metadata in the buffer. Missing
+     * titles and metadata have empty ranges.
+     */
+    private int[] m_entries = new int[ENTRY_SIZE * 64];
+
+    /**
+     * The number of levels in the collection.
+     */
+    private int m_levelCount;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Index a collection held in a buffer. The buffer is only read with
+     * absolute gets, so its position doesn't matter, and a collection may
+     * be read by several threads at once.
+     *
+     * @param buffer The collection file contents.
+     */
+    public LevelCollection(ByteBuffer buffer)
+    {
+        m_buffer = buffer.duplicate();
+        int pos = 0;
+        int limit = m_buffer.limit();
+        while (pos < limit && isSpace(m_buffer.get(pos)))
+            pos++;
+        m_isXml = (pos < limit && m_buffer.get(pos) == '<');
+        if (m_isXml)
+            indexXml();
+        else
+            indexText();
+    }
+
+    /**
+     * Memory map a collection file, and index it.
+     *
+     * @param file The collection file.
+     * @return The collection.
+     * @throws IOException if the file couldn't be mapped.
+     */
+    public static LevelCollection map(File file) throws IOException
+    {
+        RandomAccessFile collectionFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = collectionFile.getChannel();
+            // The mapping stays valid after the file is closed.
+            return new LevelCollection(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            channel.size()));
+        }
+        finally
+        {
+            collectionFile.close();
+        }
+    }
+
+    /**
+     * Read a collection from a stream (such as an asset, which can't be
+     * mapped), and index it. The stream is read in bulk, so it doesn't
+     * need to be buffered.
+     *
+     * @param inStream The stream to read from.
+     * @return The collection.
+     * @throws IOException if something went wrong in reading the stream.
+     */
+    public static LevelCollection read(InputStream inStream)
+        throws IOException
+    {
+        byte[] data = new byte[READ_BUFFER_SIZE];
+        int length = 0;
+        int bytesRead;
+        while ((bytesRead =
+            inStream.read(data, length, data.length - length)) != -1)
+        {
+            length += bytesRead;
+            if (length == data.length)
+            {
+                byte[] newData = new byte[data.length * 2];
+                System.arraycopy(data, 0, newData, 0, length);
+                data = newData;
+            }
+        }
+        return new LevelCollection(ByteBuffer.wrap(data, 0, length));
+    }
+
+    /**
+     * Get the number of levels in the collection.
+     */
+    public int getLevelCount()
+    {
+        return m_levelCount;
+    }
+
+    /**
+     * Get the title of a level.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @return The level title, or an empty string if it has none.
+     */
+    public String getLevelTitle(int index)
+    {
+        checkIndex(index);
+        int entry = index * ENTRY_SIZE;
+        return getString(m_entries[entry + TITLE_START],
+                m_entries[entry + TITLE_END]);
+    }
+
+    /**
+     * Get the metadata of a level, as it appears in the file.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @return The level metadata lines (or attributes, for an .slc
+     * collection), or an empty string if it has none.
+     */
+    public String getLevelMetadata(int index)
+    {
+        checkIndex(index);
+        int entry = index * ENTRY_SIZE;
+        return getString(m_entries[entry + METADATA_START],
+                m_entries[entry + METADATA_END]);
+    }
+
+    /**
+     * Read a level from the collection into a board.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @param board The board to read into.
+     */
+    public void readLevel(int index, Board board)
+    {
+        byte[] levelText = decodeLevel(index);
+        board.read(levelText, 0, levelText.length);
+    }
+
+    /**
+     * Decode a level from the collection into plain level file text: run
+     * lengths are expanded, and floor is always ' '.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @return The level text, one row per line.
+     */
+    public byte[] decodeLevel(int index)
+    {
+        checkIndex(index);
+        int entry = index * ENTRY_SIZE;
+        int start = m_entries[entry + BOARD_START];
+        int end = m_entries[entry + BOARD_END];
+        LevelText text = new LevelText(end - start + 1);
+
+        if (m_isXml)
+        {
+            int pos = start;
+            while (true)
+            {
+                int rowStart = indexOf("<L>", pos, end);
+                if (rowStart < 0)
+                    break;
+                rowStart += 3;
+                int rowEnd = indexOf("</L>", rowStart, end);
+                if (rowEnd < 0)
+                    rowEnd = end;
+                decodeRow(text, rowStart, rowEnd);
+                pos = rowEnd;
+            }
+        }
+        else
+        {
+            int pos = start;
+            while (pos < end)
+            {
+                int lineEnd = findLineEnd(pos, end);
+                decodeRow(text, pos, lineEnd);
+                pos = lineEnd + 1;
+            }
+        }
+        return text.toByteArray();
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Index a plain text collection.
+     */
+    private void indexText()
+    {
+        int limit = m_buffer.limit();
+        boolean inBoard = false;
+        boolean inMetadata = false;
+        int lastTextStart = 0;
+        int lastTextEnd = 0;
+        int pos = 0;
+        while (pos < limit)
+        {
+            int lineEnd = findLineEnd(pos, limit);
+            int textEnd = lineEnd;
+            if (textEnd > pos && m_buffer.get(textEnd - 1) == '\r')
+                textEnd--;
+
+            if (isBoardLine(pos, textEnd))
+            {
+                if (!inBoard)
+                {
+                    int entry = addEntry();
+                    m_entries[entry + BOARD_START] = pos;
+                    m_entries[entry + TITLE_START] = lastTextStart;
+                    m_entries[entry + TITLE_END] = lastTextEnd;
+                    lastTextStart = lastTextEnd = 0;
+                    inBoard = true;
+                }
+                m_entries[(m_levelCount - 1) * ENTRY_SIZE + BOARD_END] =
+                    textEnd;
+                inMetadata = false;
+            }
+            else
+            {
+                if (inBoard)
+                    inMetadata = true;
+                inBoard = false;
+
+                int keyEnd = findKeyEnd(pos, textEnd);
+                if (keyEnd >= 0)
+                {
+                    // A "Key: value" line belongs to the board before it.
+                    if (inMetadata)
+                        addMetadataLine(pos, textEnd, keyEnd);
+                }
+                else
+                {
+                    int textStart = skipSpace(pos, textEnd);
+                    if (textStart < textEnd && m_buffer.get(textStart) == ';')
+                        textStart = skipSpace(textStart + 1, textEnd);
+                    if (textStart < textEnd)
+                    {
+                        // Any other text may be the title of the next board.
+                        lastTextStart = textStart;
+                        lastTextEnd = trimEnd(textStart, textEnd);
+                        inMetadata = false;
+                    }
+                }
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Add a metadata line to the last level, taking its title from it if
+     * this is the title line.
+     */
+    private void addMetadataLine(int start, int end, int keyEnd)
+    {
+        int entry = (m_levelCount - 1) * ENTRY_SIZE;
+        if (m_entries[entry + METADATA_END] == 0)
+            m_entries[entry + METADATA_START] = start;
+        m_entries[entry + METADATA_END] = end;
+
+        if (keyEnd - start == TITLE_KEY.length() &&
+            indexOf(TITLE_KEY, start, keyEnd) == start)
+        {
+            int valueStart = skipSpace(keyEnd + 1, end);
+            m_entries[entry + TITLE_START] = valueStart;
+            m_entries[entry + TITLE_END] = trimEnd(valueStart, end);
+        }
+    }
+
+    /**
+     * Index an .slc (XML) collection.
+     */
+    private void indexXml()
+    {
+        int limit = m_buffer.limit();
+        int pos = 0;
+        while (true)
+        {
+            int tagStart = indexOf("<Level", pos, limit);
+            if (tagStart < 0)
+                break;
+            int attributesStart = tagStart + 6;
+            pos = attributesStart;
+            if (attributesStart >= limit ||
+                !(isSpace(m_buffer.get(attributesStart)) ||
+                  m_buffer.get(attributesStart) == '>'))
+                continue; // Some other tag, like <LevelCollection>.
+            int tagEnd = indexOf(">", attributesStart, limit);
+            if (tagEnd < 0)
+                break;
+            int levelEnd = indexOf("</Level>", tagEnd, limit);
+            if (levelEnd < 0)
+                levelEnd = limit;
+
+            int entry = addEntry();
+            m_entries[entry + BOARD_START] = tagEnd + 1;
+            m_entries[entry + BOARD_END] = levelEnd;
+            int attributesEnd = trimEnd(attributesStart, tagEnd);
+            m_entries[entry + METADATA_START] =
+                skipSpace(attributesStart, attributesEnd);
+            m_entries[entry + METADATA_END] = attributesEnd;
+            int idStart = indexOf("Id=\"", attributesStart, tagEnd);
+            if (idStart >= 0)
+            {
+                idStart += 4;
+                int idEnd = indexOf("\"", idStart, tagEnd);
+                m_entries[entry + TITLE_START] = idStart;
+                m_entries[entry + TITLE_END] = (idEnd < 0 ? tagEnd : idEnd);
+            }
+            pos = levelEnd;
+        }
+    }
+
+    /**
+     * Add an empty entry to the level table.
+     *
+     * @return The offset of the new entry in the table.
+     */
+    private int addEntry()
+    {
+        int entry = m_levelCount * ENTRY_SIZE;
+        if (entry == m_entries.length)
+        {
+            int[] newEntries = new int[m_entries.length * 2];
+            System.arraycopy(m_entries, 0, newEntries, 0, entry);
+            m_entries = newEntries;
+        }
+        m_levelCount++;
+        return entry;
+    }
+
+    /**
+     * Decode a single board row into level text, expanding run lengths and
+     * normalizing floor squares. A '|' inside a row starts a new one.
+     */
+    private void decodeRow(LevelText text, int start, int end)
+    {
+        int runLength = 0;
+        for (int pos = start; pos < end; pos++)
+        {
+            byte curChar = m_buffer.get(pos);
+            if (curChar >= '0' && curChar <= '9')
+            {
+                runLength = runLength * 10 + (curChar - '0');
+                continue;
+            }
+            if (curChar == '|')
+            {
+                text.append((byte)'\n', 1);
+            }
+            else if (curChar != '\r')
+            {
+                if (curChar == '-' || curChar == '_')
+                    curChar = ' ';
+                text.append(curChar, runLength == 0 ? 1 : runLength);
+            }
+            runLength = 0;
+        }
+        text.append((byte)'\n', 1);
+    }
+
+    /**
+     * Check whether a line is a plain text board row: it has a wall, and
+     * only board characters.
+     */
+    private boolean isBoardLine(int start, int end)
+    {
+        boolean hasWall = false;
+        for (int pos = start; pos < end; pos++)
+        {
+            byte curChar = m_buffer.get(pos);
+            if (BOARD_LINE_CHARS.indexOf(curChar) < 0)
+                return false;
+            if (curChar == '#')
+                hasWall = true;
+        }
+        return hasWall;
+    }
+
+    /**
+     * If a line is a "Key: value" line, find the colon ending the key.
+     *
+     * @return The colon offset, or -1 if this isn't a key line.
+     */
+    private int findKeyEnd(int start, int end)
+    {
+        if (start == end || !isLetter(m_buffer.get(start)))
+            return -1;
+        for (int pos = start + 1; pos < end; pos++)
+        {
+            byte curChar = m_buffer.get(pos);
+            if (curChar == ':')
+                return pos;
+            if (!isLetter(curChar) && curChar != ' ' && curChar != '-')
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of the line starting at the given offset.
+     *
+     * @return The offset of the line's '\n', or the end if there is none.
+     */
+    private int findLineEnd(int start, int end)
+    {
+        int pos = start;
+        while (pos < end && m_buffer.get(pos) != '\n')
+            pos++;
+        return pos;
+    }
+
+    /**
+     * Find a string (of ASCII characters) in the buffer.
+     *
+     * @return The offset the string starts at, or -1 if it wasn't found.
+     */
+    private int indexOf(String pattern, int start, int end)
+    {
+        int length = pattern.length();
+        byte first = (byte)pattern.charAt(0);
+        for (int pos = start; pos + length <= end; pos++)
+        {
+            if (m_buffer.get(pos) != first)
+                continue;
+            int i = 1;
+            while (i < length && m_buffer.get(pos + i) == pattern.charAt(i))
+                i++;
+            if (i == length)
+                return pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Skip the spaces at the start of a range.
+     */
+    private int skipSpace(int start, int end)
+    {
+        while (start < end && isSpace(m_buffer.get(start)))
+            start++;
+        return start;
+    }
+
+    /**
+     * Drop the spaces at the end of a range.
+     */
+    private int trimEnd(int start, int end)
+    {
+        while (end > start && isSpace(m_buffer.get(end - 1)))
+            end--;
+        return end;
+    }
+
+    /**
+     * Get a range of the buffer as a string.
+     */
+    private String getString(int start, int end)
+    {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = m_buffer.get(start + i);
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // Every JVM supports UTF-8.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Make sure a level index is inside the collection.
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= m_levelCount)
+            throw new IndexOutOfBoundsException("No level " + index);
+    }
+
+    /**
+     * Check whether a byte is white space.
+     */
+    private static boolean isSpace(byte curChar)
+    {
+        return curChar == ' ' || curChar == '\t' || curChar == '\r' ||
+            curChar == '\n';
+    }
+
+    /**
+     * Check whether a byte is an ASCII letter.
+     */
+    private static boolean isLetter(byte curChar)
+    {
+        return (curChar >= 'a' && curChar <= 'z') ||
+            (curChar >= 'A' && curChar <= 'Z');
+    }
+
+    /**
+     * A growable buffer for decoded level text.
+     */
+    private static class LevelText
+    {
+        /**
+         * The text bytes.
+         */
+        private byte[] m_text;
+
+        /**
+         * The number of bytes used.
+         */
+        private int m_length;
+
+        /**
+         * Create a buffer with the given initial capacity.
+         */
+        LevelText(int capacity)
+        {
+            m_text = new byte[Math.max(capacity, 16)];
+        }
+
+        /**
+         * Append a run of a single character.
+         */
+        void append(byte curChar, int count)
+        {
+            if (m_length + count > m_text.length)
+            {
+                byte[] newText =
+                    new byte[Math.max(m_text.length * 2, m_length + count)];
+                System.arraycopy(m_text, 0, newText, 0, m_length);
+                m_text = newText;
+            }
+            for (int i = 0; i < count; i++)
+                m_text[m_length++] = curChar;
+        }
+
+        /**
+         * Get the text.
+         */
+        byte[] toByteArray()
+        {
+            byte[] text = new byte[m_length];
+            System.arraycopy(m_text, 0, text, 0, m_length);
+            return text;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.IOException;
+
+/**
+ * Reads a level into a new board. Used by the level cache to load levels
+ * in the background, so it must not touch the UI.
+ *
+ * @author Dedi Hirschfeld
+ */
+public interface LevelLoader
+{
+    /**
+     * Read the given level.
+     *
+     * @param level The level number.
+     * @return A new board holding the level.
+     * @throws IOException if something went wrong in reading the level.
+     */
+    Board loadLevel(int level) throws IOException;
+}
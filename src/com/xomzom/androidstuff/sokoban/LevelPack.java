@@ -0,0 +1,273 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A level pack: many levels in a single compact binary file, any of which
+ * can be read without touching the others.
+ *
+ * Pack layout (all numbers are little endian):</br>
+ *
+ * header       - magic "SOKP", u16 version, u16 flags (0), u32 level count</br>
+ * offset table - (level count + 1) u32 offsets of the level records, from
+ *                the start of the pack; the last one is the pack size</br>
+ * level record - u16 width, u16 height, u16 title length, the title in
+ *                UTF-8, and then the rows</br>
+ *
+ * Each row is a sequence of run bytes, ending with an end-of-row byte. A
+ * run byte holds a square symbol in its low 3 bits, and the run length
+ * minus one in its high 5 bits. The symbols are the level file characters
+ * ' ', '#', '$', '.', '*', '@' and '+', in that order; symbol 7 ends the
+ * row. Rows keep their original length, so trailing spaces are not stored.
+ *
+ * A pack is normally memory mapped (see map()), so only the pages of the
+ * levels actually read are ever loaded.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelPack
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The pack file magic.
+     */
+    public final static int MAGIC = 0x504b4f53; // "SOKP", little endian.
+
+    /**
+     * The current pack format version.
+     */
+    public final static int VERSION = 1;
+
+    /**
+     * The size of the pack header, in bytes.
+     */
+    public final static int HEADER_SIZE = 12;
+
+    /**
+     * The level file character of each run symbol.
+     */
+    public final static String SYMBOL_CHARS = " #$.*@+";
+
+    /**
+     * The symbol that ends a row.
+     */
+    public final static int END_OF_ROW = 7;
+
+    /**
+     * The longest run a single run byte can hold.
+     */
+    public final static int MAX_RUN = 32;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The pack contents.
+     */
+    private final ByteBuffer m_buffer;
+
+    /**
+     * The number of levels in the pack.
+     */
+    private final int m_levelCount;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Open a level pack held in a buffer. The buffer is only read with
+     * absolute gets, so its position doesn't matter, and a pack may be read
+     * by several threads at once.
+     *
+     * @param buffer The pack contents.
+     * @throws IOException if the buffer doesn't hold a valid level pack.
+     */
+    public LevelPack(ByteBuffer buffer) throws IOException
+    {
+        m_buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (m_buffer.limit() < HEADER_SIZE || m_buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a level pack");
+        int version = m_buffer.getShort(4) & 0xffff;
+        if (version != VERSION)
+            throw new IOException("Unsupported level pack version " + version);
+        m_levelCount = m_buffer.getInt(8);
+        if (m_levelCount < 0 ||
+            HEADER_SIZE + 4L * (m_levelCount + 1) > m_buffer.limit())
+            throw new IOException("Corrupt level pack header");
+    }
+
+    /**
+     * Memory map a level pack file.
+     *
+     * @param file The pack file.
+     * @return The level pack.
+     * @throws IOException if the file couldn't be mapped, or isn't a valid
+     * level pack.
+     */
+    public static LevelPack map(File file) throws IOException
+    {
+        RandomAccessFile packFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = packFile.getChannel();
+            // The mapping stays valid after the file is closed.
+            return new LevelPack(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            channel.size()));
+        }
+        finally
+        {
+            packFile.close();
+        }
+    }
+
+    /**
+     * Get the number of levels in the pack.
+     */
+    public int getLevelCount()
+    {
+        return m_levelCount;
+    }
+
+    /**
+     * Get the title of a level.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @return The level title, or an empty string if it has none.
+     * @throws IOException if the level record is corrupt.
+     */
+    public String getLevelTitle(int index) throws IOException
+    {
+        checkIndex(index);
+        int offset = getLevelOffset(index);
+        int titleLength = getShort(offset + 4);
+        byte[] title = new byte[titleLength];
+        for (int i = 0; i < titleLength; i++)
+            title[i] = m_buffer.get(offset + 6 + i);
+        return new String(title, "UTF-8");
+    }
+
+    /**
+     * Read a level from the pack into a board.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @param board The board to read into.
+     * @throws IOException if the level record is corrupt.
+     */
+    public void readLevel(int index, Board board) throws IOException
+    {
+        byte[] levelText = decodeLevel(index);
+        board.read(levelText, 0, levelText.length);
+    }
+
+    /**
+     * Decode a level from the pack into level file text.
+     *
+     * @param index The level index, from 0 to getLevelCount() - 1.
+     * @return The level text, one row per line.
+     * @throws IOException if the level record is corrupt.
+     */
+    public byte[] decodeLevel(int index) throws IOException
+    {
+        checkIndex(index);
+        int offset = getLevelOffset(index);
+        int end = getLevelOffset(index + 1);
+        int width = getShort(offset);
+        int height = getShort(offset + 2);
+        int pos = offset + 6 + getShort(offset + 4);
+
+        byte[] text = new byte[(width + 1) * height];
+        int textLength = 0;
+        for (int row = 0; row < height; row++)
+        {
+            int rowStart = textLength;
+            while (true)
+            {
+                if (pos >= end)
+                    throw new IOException("Corrupt level " + index);
+                int run = m_buffer.get(pos++) & 0xff;
+                int symbol = run & 0x07;
+                if (symbol == END_OF_ROW)
+                    break;
+                int runLength = (run >> 3) + 1;
+                if (textLength - rowStart + runLength > width)
+                    throw new IOException("Corrupt level " + index);
+                byte square = (byte)SYMBOL_CHARS.charAt(symbol);
+                for (int i = 0; i < runLength; i++)
+                    text[textLength++] = square;
+            }
+            text[textLength++] = '\n';
+        }
+
+        if (textLength == text.length)
+            return text;
+        byte[] trimmed = new byte[textLength];
+        System.arraycopy(text, 0, trimmed, 0, textLength);
+        return trimmed;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Make sure a level index is inside the pack.
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= m_levelCount)
+            throw new IndexOutOfBoundsException("No level " + index);
+    }
+
+    /**
+     * Get the offset of a level record (or the pack size, for the index
+     * past the last level), checking that it is inside the pack.
+     */
+    private int getLevelOffset(int index) throws IOException
+    {
+        int offset = m_buffer.getInt(HEADER_SIZE + 4 * index);
+        if (offset < 0 || offset > m_buffer.limit() ||
+            (index < m_levelCount && offset + 6 > m_buffer.limit()))
+            throw new IOException("Corrupt level pack offset table");
+        return offset;
+    }
+
+    /**
+     * Get an unsigned 16 bit number from the pack.
+     */
+    private int getShort(int offset)
+    {
+        return m_buffer.getShort(offset) & 0xffff;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+/**
+ * A parsed level, as it is at its start. A template never changes once it
+ * is created, so it can be kept in a cache and shared between threads.
+ * Boards are set to a template with Board.reset(), which copies the
+ * template's squares into the board's own array and shares everything
+ * else, so starting a level over costs an array copy rather than reading
+ * and parsing it again.
+ *
+ * Templates are created by Board.read() (see Board.getTemplate()).
+ *
+ * @author Dedi Hirschfeld
+ */
+public final class LevelTemplate
+{
+    //
+    // Members. These are only read by Board.
+    //
+
+    /**
+     * The board squares at the start of the level, laid out as in Board.
+     */
+    final byte[] m_squares;
+
+    /**
+     * The board width.
+     */
+    final int m_boardWidth;
+
+    /**
+     * The board height.
+     */
+    final int m_boardHeight;
+
+    /**
+     * The length of a row in m_squares.
+     */
+    final int m_stride;
+
+    /**
+     * The player's start X coordinate.
+     */
+    final int m_playerX;
+
+    /**
+     * The player's start Y coordinate.
+     */
+    final int m_playerY;
+
+    /**
+     * The number of empty targets at the start of the level.
+     */
+    final int m_unsolvedTargets;
+
+    /**
+     * The square index offset of each move direction.
+     */
+    final int[] m_dirOffsets;
+
+    /**
+     * The Zobrist key of a box on each square, by square index.
+     */
+    final long[] m_boxZobrist;
+
+    /**
+     * The Zobrist key of the player standing on each square, by square
+     * index.
+     */
+    final long[] m_playerZobrist;
+
+    /**
+     * The Zobrist key of the box positions at the start of the level.
+     */
+    final long m_boxKey;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a template. The arrays are kept, not copied, so the caller must
+     * not change them afterwards.
+     */
+    LevelTemplate(byte[] squares, int boardWidth, int boardHeight,
+                  int stride, int playerX, int playerY, int unsolvedTargets,
+                  int[] dirOffsets, long[] boxZobrist, long[] playerZobrist,
+                  long boxKey)
+    {
+        m_squares = squares;
+        m_boardWidth = boardWidth;
+        m_boardHeight = boardHeight;
+        m_stride = stride;
+        m_playerX = playerX;
+        m_playerY = playerY;
+        m_unsolvedTargets = unsolvedTargets;
+        m_dirOffsets = dirOffsets;
+        m_boxZobrist = boxZobrist;
+        m_playerZobrist = playerZobrist;
+        m_boxKey = boxKey;
+    }
+
+    /**
+     * Get the board width.
+     */
+    public int getBoardWidth()
+    {
+        return m_boardWidth;
+    }
+
+    /**
+     * Get the board height.
+     */
+    public int getBoardHeight()
+    {
+        return m_boardHeight;
+    }
+}
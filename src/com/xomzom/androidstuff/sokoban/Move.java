@@ -50,6 +50,58 @@ public class Move
      */
     public final static int DIR_RIGHT = 3;
 
+    /**
+     * The number of directions.
+     */
+    public final static int DIR_COUNT = 4;
+
+    //
+    // Constants - direction tables.
+    //
+
+    /**
+     * The change to the 'x' coordinate of a move in each direction.
+     */
+    private final static int[] X_DELTAS = { 0, 0, -1, 1 };
+
+    /**
+     * The change to the 'y' coordinate of a move in each direction.
+     */
+    private final static int[] Y_DELTAS = { -1, 1, 0, 0 };
+
+    //
+    // Constants - step codes. A step code describes a move done on the
+    // board in a few bits: its direction, and whether it pushed a box (and
+    // into a deadlock). Board.move(int) returns them, and Board.undoMove(int)
+    // and MoveLog take them, so moves can be done, logged and undone without
+    // allocating Move objects.
+    //
+
+    /**
+     * The bits of a step code holding the move direction.
+     */
+    public final static int STEP_DIR_MASK = 0x03;
+
+    /**
+     * The step code flag of a move that pushed a box.
+     */
+    public final static int STEP_PUSH = 0x04;
+
+    /**
+     * The step code flag of a push into a deadlock.
+     */
+    public final static int STEP_DEADLOCK = 0x08;
+
+    /**
+     * The number of bits in a step code.
+     */
+    public final static int STEP_BITS = 4;
+
+    /**
+     * The result of Board.move(int) for an illegal move.
+     */
+    public final static int STEP_ILLEGAL = -1;
+
     //
     // Members.
     //
@@ -65,6 +117,12 @@ public class Move
      */
     private boolean m_isMoving = false;
 
+    /**
+     * A flag to indicate that this move pushed a box into a deadlock, so
+     * the level can no longer be solved.
+     */
+    private boolean m_isDeadlock = false;
+
     //
     // Operation.
     //
@@ -82,20 +140,7 @@ public class Move
      */
     public int getXDelta()
     {
-        int xDelta;
-        switch (m_dir)
-        {
-            case DIR_LEFT:
-                xDelta = -1;
-                break;
-            case DIR_RIGHT:
-                xDelta = 1;
-                break;
-            default:
-                xDelta = 0;
-                break;
-        }
-        return xDelta;
+        return getXDelta(m_dir);
     }
 
     /**
@@ -103,20 +148,50 @@ public class Move
      */
     public int getYDelta()
     {
-        int yDelta;
-        switch (m_dir)
-        {
-            case DIR_UP:
-                yDelta = -1;
-                break;
-            case DIR_DOWN:
-                yDelta = 1;
-                break;
-            default:
-                yDelta = 0;
-                break;
-        }
-        return yDelta;
+        return getYDelta(m_dir);
+    }
+
+    /**
+     * Get the change to the 'x' coordinate when moving in the given
+     * direction.
+     */
+    public static int getXDelta(int dir)
+    {
+        return X_DELTAS[dir];
+    }
+
+    /**
+     * Get the change to the 'y' coordinate when moving in the given
+     * direction.
+     */
+    public static int getYDelta(int dir)
+    {
+        return Y_DELTAS[dir];
+    }
+
+    /**
+     * Build the table of square index offsets of each direction, for a
+     * board stored row by row with the given width. With the table, the
+     * neighbour of a square is found with a single add.
+     *
+     * @param width The board width.
+     * @return The index offsets, indexed by direction.
+     */
+    public static int[] getIndexOffsets(int width)
+    {
+        int[] offsets = new int[DIR_COUNT];
+        for (int dir = 0; dir < DIR_COUNT; dir++)
+            offsets[dir] = Y_DELTAS[dir] * width + X_DELTAS[dir];
+        return offsets;
+    }
+
+    /**
+     * Get the step code of this move, as done on the board.
+     */
+    public int getStep()
+    {
+        return m_dir | (m_isMoving ? STEP_PUSH : 0) |
+            (m_isDeadlock ? STEP_DEADLOCK : 0);
     }
 
     /**
@@ -146,4 +221,23 @@ public class Move
     {
         m_isMoving = isMoving;
     }
+
+    /**
+     * Get the 'isDeadlock' flag, which indicates that this move pushed a box
+     * into a position it can never get out of to a target.
+     * @return the value of the 'isDeadlock' flag.
+     */
+    public boolean isDeadlock()
+    {
+        return m_isDeadlock;
+    }
+
+    /**
+     * Set the 'isDeadlock' flag.
+     * @param isDeadlock true if the move pushed a box into a deadlock.
+     */
+    public void setDeadlock(boolean isDeadlock)
+    {
+        m_isDeadlock = isDeadlock;
+    }
 }
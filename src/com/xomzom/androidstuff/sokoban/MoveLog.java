@@ -0,0 +1,218 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact log of the moves done in a game, for undo and replay. Each move
+ * is kept as its step code (see Move), packed two to a byte, so even very
+ * long games take little memory, and logging a move allocates nothing
+ * (apart from the occasional growth of the log).
+ *
+ * @author Dedi Hirschfeld
+ */
+public class MoveLog
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The initial log capacity, in moves.
+     */
+    private final static int INITIAL_CAPACITY = 256;
+
+    /**
+     * The mask of a single step code.
+     */
+    private final static int STEP_MASK = (1 << Move.STEP_BITS) - 1;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The packed step codes: move n is in the low nibble of byte n / 2 if
+     * n is even, and in the high nibble otherwise.
+     */
+    private byte[] m_steps;
+
+    /**
+     * The number of moves in the log.
+     */
+    private int m_size;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an empty move log.
+     */
+    public MoveLog()
+    {
+        m_steps = new byte[INITIAL_CAPACITY / 2];
+    }
+
+    /**
+     * Create a copy of a move log.
+     *
+     * @param other The log to copy.
+     */
+    public MoveLog(MoveLog other)
+    {
+        m_steps = new byte[INITIAL_CAPACITY / 2];
+        copyFrom(other);
+    }
+
+    /**
+     * Add a move to the end of the log.
+     *
+     * @param step The move's step code, as returned by Board.move(int).
+     */
+    public void add(int step)
+    {
+        int byteIndex = m_size >> 1;
+        if (byteIndex == m_steps.length)
+        {
+            byte[] newSteps = new byte[m_steps.length * 2];
+            System.arraycopy(m_steps, 0, newSteps, 0, m_steps.length);
+            m_steps = newSteps;
+        }
+        int shift = (m_size & 1) * Move.STEP_BITS;
+        int cleared = m_steps[byteIndex] & ~(STEP_MASK << shift);
+        m_steps[byteIndex] = (byte)(cleared | ((step & STEP_MASK) << shift));
+        m_size++;
+    }
+
+    /**
+     * Remove the last move from the log.
+     *
+     * @return The step code of the removed move, for undoing it.
+     */
+    public int removeLast()
+    {
+        if (m_size == 0)
+            throw new IllegalStateException("The move log is empty");
+        int step = get(m_size - 1);
+        m_size--;
+        return step;
+    }
+
+    /**
+     * Get the step code of a move in the log.
+     *
+     * @param index The move index, from 0 to size() - 1.
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= m_size)
+            throw new IndexOutOfBoundsException("No move " + index);
+        int shift = (index & 1) * Move.STEP_BITS;
+        return (m_steps[index >> 1] >> shift) & STEP_MASK;
+    }
+
+    /**
+     * Get the number of moves in the log.
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Check whether the log is empty.
+     */
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+
+    /**
+     * Count the pushes in the log.
+     */
+    public int getPushCount()
+    {
+        int pushes = 0;
+        for (int i = 0; i < m_size; i++)
+        {
+            if ((get(i) & Move.STEP_PUSH) != 0)
+                pushes++;
+        }
+        return pushes;
+    }
+
+    /**
+     * Remove all moves from the log. The log keeps its capacity.
+     */
+    public void clear()
+    {
+        m_size = 0;
+    }
+
+
+    //
+    // Package operations, used by GameSnapshot.
+    //
+
+    /**
+     * Replace the contents of this log with those of another log.
+     */
+    void copyFrom(MoveLog other)
+    {
+        int byteCount = (other.m_size + 1) >> 1;
+        if (m_steps.length < byteCount)
+            m_steps = new byte[Math.max(byteCount, m_steps.length * 2)];
+        System.arraycopy(other.m_steps, 0, m_steps, 0, byteCount);
+        m_size = other.m_size;
+    }
+
+    /**
+     * Write the log: the number of moves, followed by the packed step codes.
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(m_size);
+        out.write(m_steps, 0, (m_size + 1) >> 1);
+    }
+
+    /**
+     * Replace the contents of this log with a log written by write().
+     *
+     * @param maxSize The largest number of moves to accept; a bigger count
+     * means the data is corrupt.
+     * @throws IOException if the data couldn't be read, or is corrupt.
+     */
+    void read(DataInput in, int maxSize) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0 || size > maxSize)
+            throw new IOException("Bad move log size " + size);
+        int byteCount = (size + 1) >> 1;
+        if (m_steps.length < byteCount)
+            m_steps = new byte[byteCount];
+        in.readFully(m_steps, 0, byteCount);
+        m_size = size;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+/**
+ * A queue of player moves waiting to be played. The game collects the moves
+ * requested by input events here, and plays them all together once per
+ * frame, so fast input (key repeat, a held button) costs one redraw per
+ * frame rather than one per move. A walk to a square is queued as the whole
+ * path at once (see Board.findWalk()).
+ *
+ * The queue keeps its buffers between uses, so queuing moves normally
+ * allocates nothing.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class MoveQueue
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The initial queue capacity, in moves.
+     */
+    private final static int INITIAL_CAPACITY = 64;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The queued move directions. The pending ones are from m_head to
+     * m_tail.
+     */
+    private int[] m_dirs = new int[INITIAL_CAPACITY];
+
+    /**
+     * The index of the next move to play.
+     */
+    private int m_head;
+
+    /**
+     * The index after the last queued move.
+     */
+    private int m_tail;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Queue a move.
+     *
+     * @param dir The move direction, one of the Move.DIR_* constants.
+     */
+    public void add(int dir)
+    {
+        if (m_tail == m_dirs.length)
+        {
+            int[] newDirs = new int[m_dirs.length * 2];
+            System.arraycopy(m_dirs, 0, newDirs, 0, m_tail);
+            m_dirs = newDirs;
+        }
+        m_dirs[m_tail++] = dir;
+    }
+
+    /**
+     * Queue the moves of a shortest walk from the player's position to the
+     * given square, without pushing any box. The walk starts from the
+     * board's current position, so it should be queued when no other moves
+     * are pending.
+     *
+     * @param board The game board.
+     * @param x The target square X coordinate.
+     * @param y The target square Y coordinate.
+     * @return true if a walk was queued, false if the player can't get to
+     * the square, or is already there.
+     */
+    public boolean addWalk(Board board, int x, int y)
+    {
+        if (!board.isOnBoard(x, y))
+            return false;
+        int walkLength = board.findWalk(board.getSquareIndex(x, y));
+        if (walkLength <= 0)
+            return false;
+        for (int n = 0; n < walkLength; n++)
+            add(board.getWalkDir(n));
+        return true;
+    }
+
+    /**
+     * Check whether there are no moves pending.
+     */
+    public boolean isEmpty()
+    {
+        return m_head == m_tail;
+    }
+
+    /**
+     * Get the number of pending moves.
+     */
+    public int size()
+    {
+        return m_tail - m_head;
+    }
+
+    /**
+     * Take the next move off the queue.
+     *
+     * @return The move direction.
+     */
+    public int poll()
+    {
+        if (m_head == m_tail)
+            throw new IllegalStateException("The move queue is empty");
+        int dir = m_dirs[m_head++];
+        if (m_head == m_tail)
+            clear();
+        return dir;
+    }
+
+    /**
+     * Drop all pending moves.
+     */
+    public void clear()
+    {
+        m_head = 0;
+        m_tail = 0;
+    }
+}
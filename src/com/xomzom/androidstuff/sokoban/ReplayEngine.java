@@ -0,0 +1,297 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban;
+
+/**
+ * Replays a move log on a board, and can jump to any step of it quickly.
+ * Playing the log from the start on every jump would take time
+ * proportional to its length, so the engine keeps a checkpoint of the
+ * position every few moves (the checkpoint interval), and a jump starts
+ * from the nearest checkpoint before the target step, or from the current
+ * step if that is closer, moving forwards with Board.move() or back with
+ * Board.undoMove(). A jump therefore costs at most about one checkpoint
+ * interval of moves.
+ *
+ * A checkpoint holds just the player and box squares, so it takes a few
+ * bytes per box. A shorter interval makes jumps quicker and takes more
+ * memory. Checkpoints are taken as the replay first passes them, so
+ * creating an engine costs nothing, and the log may grow while it is
+ * replayed.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class ReplayEngine
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default number of moves between checkpoints.
+     */
+    public final static int DEFAULT_CHECKPOINT_INTERVAL = 256;
+
+    /**
+     * The initial capacity of the checkpoint table.
+     */
+    private final static int INITIAL_CHECKPOINT_CAPACITY = 16;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The level the log is played on.
+     */
+    private final LevelTemplate m_template;
+
+    /**
+     * The log being replayed.
+     */
+    private final MoveLog m_moveLog;
+
+    /**
+     * The number of moves between checkpoints.
+     */
+    private final int m_checkpointInterval;
+
+    /**
+     * The board, at the current step.
+     */
+    private final Board m_board;
+
+    /**
+     * The current step: the number of moves played on the board.
+     */
+    private int m_step;
+
+    /**
+     * The checkpoints. Checkpoint n is the position after n times the
+     * interval moves: the box square indices, followed by the player's
+     * square index.
+     */
+    private int[][] m_checkpoints;
+
+    /**
+     * The number of checkpoints taken.
+     */
+    private int m_checkpointCount;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a replay engine with the default checkpoint interval.
+     *
+     * @param template The level the log is played on.
+     * @param moveLog The log to replay.
+     */
+    public ReplayEngine(LevelTemplate template, MoveLog moveLog)
+    {
+        this(template, moveLog, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Create a replay engine. The engine starts at step 0, the level start.
+     *
+     * @param template The level the log is played on.
+     * @param moveLog The log to replay. The engine reads the log as it is
+     * replayed; see logChanged() for changing it.
+     * @param checkpointInterval The number of moves between checkpoints.
+     */
+    public ReplayEngine(LevelTemplate template, MoveLog moveLog,
+                        int checkpointInterval)
+    {
+        if (checkpointInterval < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Bad checkpoint interval " + checkpointInterval);
+        }
+        m_template = template;
+        m_moveLog = moveLog;
+        m_checkpointInterval = checkpointInterval;
+        m_board = new Board(template);
+        m_checkpoints = new int[INITIAL_CHECKPOINT_CAPACITY][];
+        addCheckpoint();
+    }
+
+    /**
+     * Get the board, at the current step. The board belongs to the engine,
+     * and must not be changed.
+     */
+    public Board getBoard()
+    {
+        return m_board;
+    }
+
+    /**
+     * Get the current step: the number of moves played on the board.
+     */
+    public int getStep()
+    {
+        return m_step;
+    }
+
+    /**
+     * Get the number of steps in the log.
+     */
+    public int getStepCount()
+    {
+        return m_moveLog.size();
+    }
+
+    /**
+     * Get the number of moves between checkpoints.
+     */
+    public int getCheckpointInterval()
+    {
+        return m_checkpointInterval;
+    }
+
+    /**
+     * Get the number of checkpoints taken so far, including the one at the
+     * level start.
+     */
+    public int getCheckpointCount()
+    {
+        return m_checkpointCount;
+    }
+
+    /**
+     * Move the board to the given step.
+     *
+     * @param step The step, from 0 (the level start) to getStepCount().
+     * @throws IllegalStateException if the log has a move that can't be
+     * played on the board.
+     */
+    public void seek(int step)
+    {
+        if (step < 0 || step > m_moveLog.size())
+            throw new IndexOutOfBoundsException("No step " + step);
+
+        int checkpoint = Math.min(step / m_checkpointInterval,
+                                  m_checkpointCount - 1);
+        int checkpointStep = checkpoint * m_checkpointInterval;
+        if (m_step > step && m_step - step <= step - checkpointStep)
+        {
+            while (m_step > step)
+                m_board.undoMove(m_moveLog.get(--m_step));
+            return;
+        }
+        if (m_step < checkpointStep || m_step > step)
+        {
+            restoreCheckpoint(checkpoint);
+            m_step = checkpointStep;
+        }
+        while (m_step < step)
+        {
+            int move = m_moveLog.get(m_step);
+            if (m_board.move(move & Move.STEP_DIR_MASK) == Move.STEP_ILLEGAL)
+                throw new IllegalStateException("Illegal move " + m_step);
+            m_step++;
+            if (m_step == m_checkpointCount * m_checkpointInterval)
+                addCheckpoint();
+        }
+    }
+
+    /**
+     * Tell the engine that the log was changed from the given step on: some
+     * moves were removed, and maybe others added instead. The checkpoints
+     * after that step are dropped, and if the board is past it, it goes
+     * back to the last checkpoint before it. Adding moves to the end of the
+     * log needs no call.
+     *
+     * @param step The first step that changed.
+     */
+    public void logChanged(int step)
+    {
+        int checkpointCount = step / m_checkpointInterval + 1;
+        if (checkpointCount < m_checkpointCount)
+        {
+            for (int i = checkpointCount; i < m_checkpointCount; i++)
+                m_checkpoints[i] = null;
+            m_checkpointCount = checkpointCount;
+        }
+        if (m_step > step)
+        {
+            restoreCheckpoint(m_checkpointCount - 1);
+            m_step = (m_checkpointCount - 1) * m_checkpointInterval;
+        }
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Take a checkpoint of the current position, which must be at the step
+     * of the next checkpoint.
+     */
+    private void addCheckpoint()
+    {
+        int squareCount = m_board.getSquareCount();
+        int boxCount = 0;
+        for (int index = 0; index < squareCount; index++)
+        {
+            if (m_board.hasBoxAt(index))
+                boxCount++;
+        }
+        int[] checkpoint = new int[boxCount + 1];
+        boxCount = 0;
+        for (int index = 0; index < squareCount; index++)
+        {
+            if (m_board.hasBoxAt(index))
+                checkpoint[boxCount++] = index;
+        }
+        checkpoint[boxCount] = m_board.getSquareIndex(m_board.getPlayerX(),
+                                                      m_board.getPlayerY());
+
+        if (m_checkpointCount == m_checkpoints.length)
+        {
+            int[][] newCheckpoints = new int[m_checkpoints.length * 2][];
+            System.arraycopy(m_checkpoints, 0, newCheckpoints, 0,
+                             m_checkpointCount);
+            m_checkpoints = newCheckpoints;
+        }
+        m_checkpoints[m_checkpointCount++] = checkpoint;
+    }
+
+    /**
+     * Set the board to the position of a checkpoint.
+     */
+    private void restoreCheckpoint(int checkpoint)
+    {
+        if (checkpoint == 0)
+        {
+            m_board.reset(m_template);
+            return;
+        }
+        int[] position = m_checkpoints[checkpoint];
+        int boxCount = position.length - 1;
+        int player = position[boxCount];
+        m_board.setBoxPositions(position, boxCount);
+        m_board.setPlayerPosition(m_board.getSquareX(player),
+                                  m_board.getSquareY(player));
+    }
+}
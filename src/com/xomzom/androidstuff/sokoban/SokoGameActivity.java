@@ -20,8 +20,11 @@
 
 package com.xomzom.androidstuff.sokoban;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.app.Dialog;
@@ -41,10 +44,13 @@ import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.View.OnTouchListener;
 import android.widget.ImageButton;
 import android.widget.TextView;
+import android.widget.Toast;
 
 
 /**
@@ -56,7 +62,8 @@ import android.widget.TextView;
  * TODO: Option for Left-hand play
  */
 public class SokoGameActivity extends Activity
-    implements OnClickListener, OnSharedPreferenceChangeListener
+    implements OnClickListener, OnTouchListener,
+               OnSharedPreferenceChangeListener
 {
     //
     // Constants.
@@ -67,6 +74,22 @@ public class SokoGameActivity extends Activity
      */
     private final static String LEVEL_PREF_NAME = "CURRENT_LEVEL";
 
+    /**
+     * The name of the file the game snapshot is saved to.
+     */
+    private final static String SNAPSHOT_FILE_NAME = "game.snapshot";
+
+    /**
+     * The prefix for level files.
+     */
+    private final static String LEVEL_FILE_PREFIX =
+        "levels/level-";
+
+    /**
+     * The postfix for level files.
+     */
+    private final static String LEVEL_FILE_POSTFIX = ".txt";
+
     /**
      * The transparency to use for the undo button, when it's enabled.
      */
@@ -77,6 +100,24 @@ public class SokoGameActivity extends Activity
      */
     private static final int UNDO_DISABLED_TRANSPARENCY = 128;
 
+    /**
+     * The time, in milliseconds, moves are collected for before they are
+     * played together - about one frame.
+     */
+    private final static int MOVE_BATCH_DELAY = 16;
+
+    /**
+     * The time, in milliseconds, a move button has to be held before the
+     * move starts repeating.
+     */
+    private final static int MOVE_REPEAT_DELAY = 400;
+
+    /**
+     * The time, in milliseconds, between repeated moves while a move button
+     * is held.
+     */
+    private final static int MOVE_REPEAT_INTERVAL = 100;
+
     //
     // Members.
     //
@@ -91,6 +132,18 @@ public class SokoGameActivity extends Activity
      */
     private Board m_board = new Board();
 
+    /**
+     * The cache of parsed levels. The levels next to the current one are
+     * loaded into it in the background.
+     */
+    private LevelCache m_levelCache;
+
+    /**
+     * The thread game snapshots are saved on, so saving never blocks the UI
+     * thread. Snapshots are saved in the order they were taken.
+     */
+    private ExecutorService m_snapshotExecutor;
+
     /**
      * The gameboard view.
      */
@@ -149,9 +202,55 @@ public class SokoGameActivity extends Activity
     private MenuItem m_undoMenuItem;
 
     /**
-     * The list of moves done in the game.
+     * The log of moves done in the game.
+     */
+    private MoveLog m_moveLog = new MoveLog();
+
+    /**
+     * The moves requested since the last batch was played.
+     */
+    private final MoveQueue m_moveQueue = new MoveQueue();
+
+    /**
+     * Whether playMoves is posted to be run.
+     */
+    private boolean m_isBatchPending;
+
+    /**
+     * Plays the pending moves; posted once for each batch.
+     */
+    private final Runnable m_playMoves = new Runnable()
+    {
+        public void run()
+        {
+            playMoves();
+        }
+    };
+
+    /**
+     * The direction of the move button being held, for repeating.
+     */
+    private int m_repeatDir;
+
+    /**
+     * Whether the move button being held has started repeating, in which
+     * case releasing it doesn't count as a click. Cleared when the button
+     * is released.
+     */
+    private boolean m_isRepeating;
+
+    /**
+     * Repeats the move of the button being held.
      */
-    private Vector<Move> m_moveList = new Vector<Move>();
+    private final Runnable m_repeatMove = new Runnable()
+    {
+        public void run()
+        {
+            m_isRepeating = true;
+            doMove(m_repeatDir);
+            m_gameView.postDelayed(this, MOVE_REPEAT_INTERVAL);
+        }
+    };
 
     /**
      * The number of levels.
@@ -185,15 +284,31 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * We're going to pause. Write the level number, since we might be
-     * killed at any moment.
+     * We're going to pause. Save the game, since we might be killed at any
+     * moment. The snapshot is written in the background; the level number
+     * is still written too, as a fallback for when there's no usable
+     * snapshot.
      */
     @Override
     public void onPause()
     {
         super.onPause();
-        // TODO: Save the entire state. And use a bundle to do it.
+        m_gameView.removeCallbacks(m_repeatMove);
+        playMoves();
         writeCurrentLevelNumber();
+        saveSnapshot();
+    }
+
+    /**
+     * We're going away. Stop the level loading thread, and let the snapshot
+     * thread finish the snapshot it was given.
+     */
+    @Override
+    public void onDestroy()
+    {
+        super.onDestroy();
+        m_levelCache.shutdown();
+        m_snapshotExecutor.shutdown();
     }
 
 
@@ -210,7 +325,11 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * Set the level.
+     * Set the level. The level normally comes already parsed from the level
+     * cache, since it was prefetched while the level before or after it was
+     * played; only if it wasn't, this waits for it to load. The board is
+     * reset in place to the cached level, so going back to a level is just
+     * an array copy.
      *
      * @param level, the new level (or offset).
      * @return true if the level was read successfully, false otherwise. If the
@@ -220,7 +339,7 @@ public class SokoGameActivity extends Activity
     {
         try
         {
-            m_board.read(newLevel, getAssets());
+            m_levelCache.readLevel(newLevel, m_board);
         }
         catch (IOException e)
         {
@@ -231,14 +350,30 @@ public class SokoGameActivity extends Activity
         m_level = newLevel;
         String statusText = getString(R.string.LEVEL_TEXT, m_level);
         m_statusView.setText(statusText);
-        m_moveList.removeAllElements();
+        m_moveLog.clear();
+        m_moveQueue.clear();
         setUndoButtonsState();
         setLevelButtonsState();
         if (m_gameView != null)
-            m_gameView.invalidate();
+            m_gameView.invalidateBackground();
+        prefetchLevel(m_level + 1);
+        prefetchLevel(m_level - 1);
         return true;
     }
 
+    /**
+     * Start the current level over. The board goes back to the start of
+     * the level it holds, so nothing is loaded.
+     */
+    public void restartLevel()
+    {
+        m_board.restart();
+        m_moveLog.clear();
+        m_moveQueue.clear();
+        setUndoButtonsState();
+        m_gameView.invalidateBackground();
+    }
+
     /**
      * Get the current level.
      * @return The current level.
@@ -258,36 +393,44 @@ public class SokoGameActivity extends Activity
     }
 
     /**
-     * Perform a game move.
-     * @param move The move to perform.
+     * Perform a game move. The move is queued, and played with the other
+     * moves requested in the same frame.
+     * @param dir The move direction, one of the Move.DIR_* constants.
      */
-    public void doMove(Move move)
+    public void doMove(int dir)
     {
-        boolean moveOk = m_board.move(move);
-        if (moveOk)
-        {
-            m_moveList.addElement(move);
-            setUndoButtonsState();
-            m_gameView.invalidate();
-        }
-        if (m_board.isSolved())
-        {
-            advanceLevel();
-        }
+        m_moveQueue.add(dir);
+        scheduleMoves();
     }
 
     /**
-     * Undo the last move done.
+     * Walk the player to the given square, along a shortest path that
+     * doesn't push any box. The whole walk is played as one batch. Nothing
+     * happens if the player can't get there.
+     *
+     * @param x The square X coordinate.
+     * @param y The square Y coordinate.
+     */
+    public void walkTo(int x, int y)
+    {
+        // The walk starts where the pending moves end.
+        playMoves();
+        if (m_moveQueue.addWalk(m_board, x, y))
+            scheduleMoves();
+    }
+
+    /**
+     * Undo the last move done. Moves still pending are played first, so
+     * the undo applies to the last move requested.
      */
     public void undoMove()
     {
-        if (m_moveList.size() > 0)
+        playMoves();
+        if (!m_moveLog.isEmpty())
         {
-            Move move = m_moveList.lastElement();
-            m_moveList.setSize(m_moveList.size() - 1);
-            m_board.undoMove(move);
+            m_board.undoMove(m_moveLog.removeLast());
             setUndoButtonsState();
-            m_gameView.invalidate();
+            m_gameView.invalidateChangedSquares();
         }
     }
 
@@ -354,7 +497,7 @@ public class SokoGameActivity extends Activity
             doSelectLevelDialog();
             return true;
           case R.id.MENU_ITEM_RESTART:
-            setLevel(m_level);
+            restartLevel();
             return true;
           case R.id.MENU_ITEM_EXIT:
             writeCurrentLevelNumber();
@@ -389,9 +532,8 @@ public class SokoGameActivity extends Activity
         }
         if (moveDir != -1)
         {
-            Move move = new Move(moveDir);
             Log.d(this.getClass().getName(), "Moving to: " + moveDir);
-            doMove(move);
+            doMove(moveDir);
             return true;
         }
         Log.d(this.getClass().getName(), "Unhandled key event.");
@@ -405,15 +547,49 @@ public class SokoGameActivity extends Activity
     public void onClick(View src)
     {
         if (src == m_navUndoButton || src == m_standaloneUndoButton)
+        {
             undoMove();
-        else if (src == m_upButton)
-            doMove(new Move(Move.DIR_UP));
-        else if (src == m_downButton)
-            doMove(new Move(Move.DIR_DOWN));
-        else if (src == m_leftButton)
-            doMove(new Move(Move.DIR_LEFT));
-        else if (src == m_rightButton)
-            doMove(new Move(Move.DIR_RIGHT));
+            return;
+        }
+        int moveDir = getButtonDir(src);
+        if (moveDir != -1)
+            doMove(moveDir);
+    }
+
+    /**
+     * A button was touched. Holding a move button down repeats its move,
+     * until it is released. A plain press is left to onClick(); releasing a
+     * button that has repeated is consumed here, so it doesn't also click.
+     */
+    @Override
+    public boolean onTouch(View src, MotionEvent event)
+    {
+        int moveDir = getButtonDir(src);
+        if (moveDir == -1)
+            return false;
+        switch (event.getAction())
+        {
+            case MotionEvent.ACTION_DOWN:
+                m_repeatDir = moveDir;
+                m_isRepeating = false;
+                m_gameView.removeCallbacks(m_repeatMove);
+                m_gameView.postDelayed(m_repeatMove, MOVE_REPEAT_DELAY);
+                break;
+            case MotionEvent.ACTION_UP:
+                m_gameView.removeCallbacks(m_repeatMove);
+                if (m_isRepeating)
+                {
+                    m_isRepeating = false;
+                    src.setPressed(false);
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                m_gameView.removeCallbacks(m_repeatMove);
+                m_isRepeating = false;
+                break;
+        }
+        return false;
     }
 
     /**
@@ -466,11 +642,25 @@ public class SokoGameActivity extends Activity
         initPreferencesDefault();
         refreshPreferences();
 
-        int level = readCurrentLevelNumber();
-        if (!setLevel(level))
+        m_levelCache = new LevelCache(new LevelLoader()
+        {
+            public Board loadLevel(int level) throws IOException
+            {
+                Board board = new Board();
+                readLevel(level, board);
+                return board;
+            }
+        }, LevelCache.DEFAULT_CAPACITY);
+        m_snapshotExecutor = Executors.newSingleThreadExecutor();
+
+        if (!restoreSnapshot())
         {
-            if (!setLevel(1))
-                finish();
+            int level = readCurrentLevelNumber();
+            if (!setLevel(level))
+            {
+                if (!setLevel(1))
+                    finish();
+            }
         }
 
         m_gameView = (SokoView)findViewById(R.id.game_view);
@@ -478,6 +668,37 @@ public class SokoGameActivity extends Activity
         m_gameView.setGame(this);
     }
 
+    /**
+     * Start loading the given level in the background, if it exists.
+     */
+    private void prefetchLevel(int level)
+    {
+        if (level >= 1 && level <= m_maxLevel)
+            m_levelCache.prefetch(level);
+    }
+
+    /**
+     * Read the given level from the application's assets into a board. This
+     * is called on the level cache's thread.
+     *
+     * @param level The level to read.
+     * @param board The board to read into.
+     * @throws IOException if something went wrong in reading the board.
+     */
+    private void readLevel(int level, Board board) throws IOException
+    {
+        String filename = LEVEL_FILE_PREFIX + level + LEVEL_FILE_POSTFIX;
+        InputStream inStream = getAssets().open(filename);
+        try
+        {
+            board.read(inStream);
+        }
+        finally
+        {
+            inStream.close();
+        }
+    }
+
     /**
      * Helper method - associate a menu item (identified by an ID), with a
      * URL to show (identified by the resource ID of the string constant
@@ -521,9 +742,84 @@ public class SokoGameActivity extends Activity
     {
         ImageButton button =  (ImageButton)findViewById(id);
         button.setOnClickListener(this);
+        button.setOnTouchListener(this);
         return button;
     }
 
+    /**
+     * Get the move direction of a move button.
+     *
+     * @return The direction, or -1 if the view is not a move button.
+     */
+    private int getButtonDir(View button)
+    {
+        if (button == m_upButton)
+            return Move.DIR_UP;
+        if (button == m_downButton)
+            return Move.DIR_DOWN;
+        if (button == m_leftButton)
+            return Move.DIR_LEFT;
+        if (button == m_rightButton)
+            return Move.DIR_RIGHT;
+        return -1;
+    }
+
+    /**
+     * Make sure the pending moves are played in about a frame's time, unless
+     * that is already scheduled.
+     */
+    private void scheduleMoves()
+    {
+        if (m_isBatchPending)
+            return;
+        m_isBatchPending = true;
+        m_gameView.postDelayed(m_playMoves, MOVE_BATCH_DELAY);
+    }
+
+    /**
+     * Play all the pending moves on the board, and redraw the squares they
+     * changed with a single invalidate. Illegal moves are skipped. If the
+     * level is solved, the moves after the solving move are dropped.
+     */
+    private void playMoves()
+    {
+        if (m_isBatchPending)
+        {
+            m_gameView.removeCallbacks(m_playMoves);
+            m_isBatchPending = false;
+        }
+
+        boolean isMoved = false;
+        boolean isDeadlock = false;
+        while (!m_moveQueue.isEmpty())
+        {
+            int step = m_board.move(m_moveQueue.poll());
+            if (step == Move.STEP_ILLEGAL)
+                continue;
+            m_moveLog.add(step);
+            m_gameView.addChangedSquares();
+            isMoved = true;
+            if ((step & Move.STEP_DEADLOCK) != 0)
+                isDeadlock = true;
+            if (m_board.isSolved())
+                m_moveQueue.clear();
+        }
+        if (!isMoved)
+            return;
+
+        setUndoButtonsState();
+        m_gameView.invalidateDirtyRegion();
+        if (m_board.isSolved())
+        {
+            advanceLevel();
+        }
+        else if (isDeadlock)
+        {
+            Toast.makeText(this, R.string.DEADLOCK_WARNING,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
     private void doSelectLevelDialog()
     {
         if (m_selectLevelDialog == null)
@@ -538,7 +834,7 @@ public class SokoGameActivity extends Activity
      */
     private void setUndoButtonsState()
     {
-        boolean enabled = !m_moveList.isEmpty();
+        boolean enabled = !m_moveLog.isEmpty();
         int buttonTransparency =
             (enabled ? UNDO_ENABLED_TRANSPARENCY : UNDO_DISABLED_TRANSPARENCY);
         m_navUndoButton.setEnabled(enabled);
@@ -564,6 +860,66 @@ public class SokoGameActivity extends Activity
         m_nextLevelMenuItem.setEnabled(m_level < m_maxLevel);
     }
 
+    /**
+     * Capture the game state, and save it on the snapshot thread. Capturing
+     * only copies the state, so this returns quickly however long the game
+     * is.
+     */
+    private void saveSnapshot()
+    {
+        final GameSnapshot snapshot =
+            GameSnapshot.capture(m_level, m_board, m_moveLog);
+        final File file = getFileStreamPath(SNAPSHOT_FILE_NAME);
+        m_snapshotExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    snapshot.save(file);
+                }
+                catch (IOException e)
+                {
+                    Log.e(SokoGameActivity.class.toString(),
+                          Log.getStackTraceString(e));
+                }
+            }
+        });
+    }
+
+    /**
+     * Restore the game from the saved snapshot, if there is one.
+     *
+     * @return true if the game was restored, false if there's no snapshot,
+     * or it couldn't be used (in which case the level should be set the
+     * usual way).
+     */
+    private boolean restoreSnapshot()
+    {
+        File file = getFileStreamPath(SNAPSHOT_FILE_NAME);
+        if (!file.exists())
+            return false;
+        GameSnapshot snapshot;
+        try
+        {
+            snapshot = GameSnapshot.load(file);
+        }
+        catch (IOException e)
+        {
+            Log.e(this.getClass().toString(), Log.getStackTraceString(e));
+            return false;
+        }
+        int level = snapshot.getLevel();
+        if (level < 1 || level > m_maxLevel || !setLevel(level))
+            return false;
+        // If the level changed since the snapshot was taken, just start it
+        // over, and drop the snapshot, which will never fit it again.
+        if (!snapshot.restore(m_board, m_moveLog))
+            file.delete();
+        setUndoButtonsState();
+        return true;
+    }
+
     /**
      * Read the level from the store.
      */
@@ -23,9 +23,9 @@ package com.xomzom.androidstuff.sokoban;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
 
 /**
@@ -46,9 +46,43 @@ public class SokoView extends View
     private SokoGameActivity m_game;
 
     /**
-     * The paint object to use (for now).
+     * The destination rectangle of drawSprite(), kept so drawing doesn't
+     * allocate.
      */
-    private Paint m_paint = new Paint();
+    private final Rect m_squareRect = new Rect();
+
+    /**
+     * The source rectangle of drawSprite(), within the sprite atlas.
+     */
+    private final Rect m_spriteRect = new Rect();
+
+    /**
+     * The sprite atlas for the frame being drawn.
+     */
+    private Bitmap m_atlas;
+
+    /**
+     * The static layers of the board - walls, floor tiles and targets -
+     * drawn once for the current level and square size. null if it needs to
+     * be redrawn.
+     */
+    private Bitmap m_background;
+
+    /**
+     * The square size m_background was drawn with.
+     */
+    private int m_backgroundSquareSize;
+
+    /**
+     * The clip bounds of the frame being drawn.
+     */
+    private final Rect m_clipRect = new Rect();
+
+    /**
+     * The region changed since the last invalidateDirtyRegion(): the union
+     * of the changed squares. Empty if nothing changed.
+     */
+    private final Rect m_dirtyRect = new Rect();
 
     /**
      * The resource manager.
@@ -68,6 +102,7 @@ public class SokoView extends View
     {
         super(context, attrs, defStyle);
         m_resourceManager = new GameResourceManager(getResources());
+        setPadding(3, 3, 3, 3);
     }
 
     /**
@@ -85,11 +120,110 @@ public class SokoView extends View
     public void setGame(SokoGameActivity game)
     {
         m_game = game;
+        invalidateBackground();
+    }
+
+    /**
+     * Redraw the whole view, including the static background layers. Call
+     * this when the board is replaced with a new level.
+     */
+    public void invalidateBackground()
+    {
+        if (m_background != null)
+        {
+            m_background.recycle();
+            m_background = null;
+        }
         invalidate();
     }
 
     /**
-     * Refresh the canvas.
+     * Invalidate just the squares changed by the board's last move (see
+     * Board.getChangedSquare()), instead of the whole view.
+     */
+    public void invalidateChangedSquares()
+    {
+        addChangedSquares();
+        invalidateDirtyRegion();
+    }
+
+    /**
+     * Add the squares changed by the board's last move to the dirty region,
+     * without redrawing anything yet. Call this after each move of a batch,
+     * and invalidateDirtyRegion() once after the whole batch.
+     */
+    public void addChangedSquares()
+    {
+        if (m_game == null)
+            return;
+
+        Board board = m_game.getBoard();
+        int squareSize = getSquareSize();
+        int changedCount = board.getChangedSquareCount();
+        for (int n = 0; n < changedCount; n++)
+        {
+            int square = board.getChangedSquare(n);
+            int squareLeft = board.getSquareX(square) * squareSize;
+            int squareTop = board.getSquareY(square) * squareSize;
+            m_dirtyRect.union(squareLeft, squareTop,
+                    squareLeft + squareSize, squareTop + squareSize);
+        }
+    }
+
+    /**
+     * Redraw the dirty region collected by addChangedSquares(), in a single
+     * invalidate() call, and clear it.
+     */
+    public void invalidateDirtyRegion()
+    {
+        if (m_dirtyRect.isEmpty())
+            return;
+        invalidate(m_dirtyRect);
+        m_dirtyRect.setEmpty();
+    }
+
+    /**
+     * A touch event - a tap on a square walks the player there.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        if (m_game == null)
+            return super.onTouchEvent(event);
+
+        switch (event.getAction())
+        {
+            case MotionEvent.ACTION_DOWN:
+                return true;
+            case MotionEvent.ACTION_UP:
+                int squareSize = getSquareSize();
+                if (squareSize > 0)
+                {
+                    int column = (int)event.getX() / squareSize;
+                    int row = (int)event.getY() / squareSize;
+                    m_game.walkTo(column, row);
+                }
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    /**
+     * The view size changed - the background must be drawn again.
+     */
+    @Override
+    protected void onSizeChanged(int width, int height,
+                                 int oldWidth, int oldHeight)
+    {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        invalidateBackground();
+    }
+
+    /**
+     * Refresh the canvas. The static layers are copied from the background
+     * bitmap, and only the boxes and the player inside the clip bounds are
+     * drawn on top of them, so a frame after invalidateChangedSquares() draws
+     * just a few squares.
      */
     @Override
     protected void onDraw(Canvas canvas)
@@ -100,21 +234,62 @@ public class SokoView extends View
         if (m_game == null)
             return;
 
-        m_paint = new Paint();
-        m_paint.setAntiAlias(true);
-        setPadding(3, 3, 3, 3);
-
         Board board = m_game.getBoard();
         int boardWidth = board.getBoardWidth();
         int boardHeight = board.getBoardHeight();
 
         int squareRealSize = getSquareSize();
+        if (squareRealSize <= 0)
+            return;
+
+        m_atlas = m_resourceManager.getSpriteAtlas(squareRealSize);
+        if ((m_background == null) ||
+            (m_backgroundSquareSize != squareRealSize))
+        {
+            drawBackground(squareRealSize, board);
+        }
+        canvas.drawBitmap(m_background, 0, 0, null);
+
+        canvas.getClipBounds(m_clipRect);
+        int firstColumn = Math.max(m_clipRect.left / squareRealSize, 0);
+        int lastColumn =
+            Math.min((m_clipRect.right - 1) / squareRealSize, boardWidth - 1);
+        int firstRow = Math.max(m_clipRect.top / squareRealSize, 0);
+        int lastRow =
+            Math.min((m_clipRect.bottom - 1) / squareRealSize, boardHeight - 1);
 
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                drawMovingParts(column, row, squareRealSize, board, canvas);
+            }
+        }
+    }
+
+    /**
+     * Draw the static layers of the whole board into m_background.
+     *
+     * @param squareSize The square width and height.
+     * @param board The game board.
+     */
+    private void drawBackground(int squareSize, Board board)
+    {
+        if (m_background != null)
+            m_background.recycle();
+
+        int boardWidth = board.getBoardWidth();
+        int boardHeight = board.getBoardHeight();
+        m_background = Bitmap.createBitmap(boardWidth * squareSize,
+                boardHeight * squareSize, Bitmap.Config.ARGB_8888);
+        m_backgroundSquareSize = squareSize;
+
+        Canvas canvas = new Canvas(m_background);
         for (int row = 0; row < boardHeight; row++)
         {
             for (int column = 0; column < boardWidth; column++)
             {
-                drawSquare(column, row, squareRealSize, board, canvas);
+                drawStaticParts(column, row, squareSize, board, canvas);
             }
         }
     }
@@ -143,7 +318,8 @@ public class SokoView extends View
     }
 
     /**
-     * draw the contents of the given square.
+     * draw the parts of the given square that never change during a level -
+     * walls, floor tiles and targets.
      *
      * @param column The square column.
      * @param row The square row.
@@ -151,61 +327,75 @@ public class SokoView extends View
      * @param board The game board.
      * @param g The graphics object to draw on.
      */
-    private void drawSquare(int column, int row,
-                             int squareSize, Board board,
-                             Canvas canvas)
+    private void drawStaticParts(int column, int row,
+                                 int squareSize, Board board,
+                                 Canvas canvas)
     {
-        BoardSquare square = board.getSquare(column, row);
-        if (square == null)
-            return;
-
-        if (square.isWall())
+        if (board.isWall(column, row))
         {
-            drawBitmap(m_resourceManager.getWallBitmap(), column, row,
+            drawSprite(GameResourceManager.SPRITE_WALL, column, row,
                     squareSize, canvas);
             return;
         }
 
-        if (square.isInsideBoard())
+        if (board.isInsideBoard(column, row))
         {
-            drawBitmap(m_resourceManager.getTileBitmap(), column, row,
+            drawSprite(GameResourceManager.SPRITE_TILE, column, row,
                     squareSize, canvas);
         }
 
-        if (square.isTarget())
+        if (board.isTarget(column, row))
         {
-            drawBitmap(m_resourceManager.getTargetBitmap(), column, row,
+            drawSprite(GameResourceManager.SPRITE_TARGET, column, row,
                        squareSize, canvas);
         }
+    }
 
-        if (square.hasBox())
+    /**
+     * draw the parts of the given square that move - a box and the player.
+     *
+     * @param column The square column.
+     * @param row The square row.
+     * @param squareSize The square width and height.
+     * @param board The game board.
+     * @param g The graphics object to draw on.
+     */
+    private void drawMovingParts(int column, int row,
+                                 int squareSize, Board board,
+                                 Canvas canvas)
+    {
+        if (board.hasBox(column, row))
         {
-            drawBitmap(m_resourceManager.getBoxBitmap(), column, row,
+            drawSprite(GameResourceManager.SPRITE_BOX, column, row,
                     squareSize, canvas);
         }
 
         if ((row == board.getPlayerY()) && (column == board.getPlayerX()))
         {
-            drawBitmap(m_resourceManager.getPlayerBitmap(),
+            drawSprite(GameResourceManager.SPRITE_PLAYER,
                     column, row, squareSize, canvas);
         }
     }
 
     /**
-     * Draw the given bitmap in the given position.
+     * Draw the given sprite in the given position. The sprite comes from the
+     * atlas pre-scaled to squareSize, so it is copied without scaling.
      *
+     * @param sprite The sprite (GameResourceManager.SPRITE_XXX).
      * @param column
      * @param row
      * @param squareSize
      * @param canvas
      */
-    private void drawBitmap(Bitmap bitmap, int column, int row, int squareSize,
+    private void drawSprite(int sprite, int column, int row, int squareSize,
                 Canvas canvas)
     {
         int squareLeft = column * squareSize;
         int squareTop = row * squareSize;
-        Rect rect = new Rect(squareLeft, squareTop,
-                squareLeft + squareSize - 1, squareTop + squareSize - 1);
-        canvas.drawBitmap(bitmap, null, rect, null);
+        int spriteSize = GameResourceManager.getSpriteSize(squareSize);
+        GameResourceManager.getSpriteBounds(sprite, squareSize, m_spriteRect);
+        m_squareRect.set(squareLeft, squareTop,
+                squareLeft + spriteSize, squareTop + spriteSize);
+        canvas.drawBitmap(m_atlas, m_spriteRect, m_squareRect, null);
     }
 }
@@ -0,0 +1,154 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A transposition table that can be shared by several solver threads. This
+ * is a lock-free open addressing table of primitive longs: a slot is
+ * claimed by a compare-and-set of its key, and its depth is then lowered
+ * with compare-and-set as well. The table has a fixed capacity; when a
+ * key's probe sequence is full, the state is simply not recorded (and is
+ * searched), which costs some duplicate work but never correctness.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class ConcurrentTranspositionTable implements StateTable
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The key used to mark empty slots. A real key with this value is
+     * replaced with EMPTY_KEY_REPLACEMENT.
+     */
+    private final static long EMPTY_KEY = 0;
+
+    /**
+     * The key used in place of a real key that equals EMPTY_KEY.
+     */
+    private final static long EMPTY_KEY_REPLACEMENT = 1;
+
+    /**
+     * The depth of a slot that was claimed, but not yet given a depth.
+     */
+    private final static int NO_DEPTH = Integer.MAX_VALUE;
+
+    /**
+     * The number of slots probed before giving up on recording a state.
+     */
+    private final static int MAX_PROBES = 64;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The keys of the table slots.
+     */
+    private final AtomicLongArray m_keys;
+
+    /**
+     * The depths of the table slots.
+     */
+    private final AtomicIntegerArray m_depths;
+
+    /**
+     * The slot index mask (capacity - 1).
+     */
+    private final int m_mask;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacityBits The log2 of the number of slots in the table.
+     */
+    public ConcurrentTranspositionTable(int capacityBits)
+    {
+        int capacity = 1 << capacityBits;
+        m_keys = new AtomicLongArray(capacity);
+        m_depths = new AtomicIntegerArray(capacity);
+        m_mask = capacity - 1;
+        clear();
+    }
+
+    /**
+     * Record a visit to a state. This may be called concurrently from any
+     * number of threads.
+     *
+     * @see StateTable#visit(long, int)
+     */
+    public boolean visit(long key, int depth)
+    {
+        if (key == EMPTY_KEY)
+            key = EMPTY_KEY_REPLACEMENT;
+        int slot = (int)(key ^ (key >>> 32)) & m_mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++)
+        {
+            long slotKey = m_keys.get(slot);
+            if (slotKey == EMPTY_KEY &&
+                m_keys.compareAndSet(slot, EMPTY_KEY, key))
+            {
+                slotKey = key;
+            }
+            else if (slotKey == EMPTY_KEY)
+            {
+                // Someone else claimed the slot first - see who.
+                slotKey = m_keys.get(slot);
+            }
+
+            if (slotKey == key)
+            {
+                while (true)
+                {
+                    int seenDepth = m_depths.get(slot);
+                    if (seenDepth <= depth)
+                        return false;
+                    if (m_depths.compareAndSet(slot, seenDepth, depth))
+                        return true;
+                }
+            }
+            slot = (slot + 1) & m_mask;
+        }
+        return true;
+    }
+
+    /**
+     * Forget all the visited states. This must not be called while other
+     * threads are using the table.
+     */
+    public void clear()
+    {
+        int capacity = m_keys.length();
+        for (int i = 0; i < capacity; i++)
+        {
+            m_keys.set(i, EMPTY_KEY);
+            m_depths.set(i, NO_DEPTH);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+/**
+ * Int array helpers shared by the solver classes.
+ *
+ * @author Dedi Hirschfeld
+ */
+final class IntArrays
+{
+    //
+    // Operations.
+    //
+
+    /**
+     * No instances.
+     */
+    private IntArrays()
+    {
+    }
+
+    /**
+     * Grow an int array, keeping its contents.
+     *
+     * @param array The array.
+     * @param newLength The new length; not less than the array's length.
+     * @return A new array, starting with the contents of the given one.
+     */
+    static int[] grow(int[] array, int newLength)
+    {
+        int[] newArray = new int[newLength];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * An admissible lower bound on the number of pushes left to solve a board
+ * position, for the solver's heuristic.
+ *
+ * The bound is built on push distances: for every target, the number of
+ * pushes needed to get a box to it from each square, if there were no
+ * other boxes. These respect the walls - a push needs a free square for
+ * the player behind the box - so they are found by a backwards search
+ * from each target, once, when the bound is created. A box that can't
+ * reach any target at all makes the position unsolvable.
+ *
+ * There are two bounds:
+ * <ul>
+ * <li>BOUND_NEAREST_TARGET - the sum of the distances of each box to its
+ * own nearest target. Several boxes may count the same target, which keeps
+ * this cheap - a push changes it in constant time. (Matching boxes to
+ * targets greedily, nearest first, is not a lower bound: a greedy matching
+ * can cost more than the best one.)</li>
+ * <li>BOUND_MATCHING - the cost of the best assignment of boxes to distinct
+ * targets, found with the Hungarian algorithm. This is never lower than the
+ * nearest target bound. A push only changes the costs of one box, so the
+ * assignment is repaired with a single augmenting path, in O(n^2) time for
+ * n boxes, rather than solved again in O(n^3).</li>
+ * </ul>
+ *
+ * A lower bound keeps its own copy of the box positions. Call reset()
+ * after the boxes on the board change, and moveBox() after each push (or
+ * undone push).
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LowerBound
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Bound type - the sum of the push distances of each box to its nearest
+     * target.
+     */
+    public final static int BOUND_NEAREST_TARGET = 0;
+
+    /**
+     * Bound type - the cost of the best matching of boxes to targets.
+     */
+    public final static int BOUND_MATCHING = 1;
+
+    /**
+     * The bound of a position that can't be solved.
+     */
+    public final static int UNSOLVABLE = Integer.MAX_VALUE;
+
+    /**
+     * The push distance from a square a box can't be pushed to the target
+     * from. It is big enough that any sum including it is unsolvable, and
+     * small enough that such sums don't overflow.
+     */
+    private final static int NO_PATH = 1 << 20;
+
+    /**
+     * Marker for a square with no box on it, in the box map.
+     */
+    private final static int NO_BOX = -1;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board.
+     */
+    private final Board m_board;
+
+    /**
+     * The bound type (BOUND_XXX).
+     */
+    private final int m_boundType;
+
+    /**
+     * The number of square indices on the board, including its border.
+     */
+    private final int m_squareCount;
+
+    /**
+     * For each square, whether it is a floor square inside the board.
+     */
+    private final boolean[] m_isFloor;
+
+    /**
+     * The square index of each target.
+     */
+    private final int[] m_targets;
+
+    /**
+     * The push distance to each target from each square, or NO_PATH. The
+     * distances to target t start at t * m_squareCount.
+     */
+    private final int[] m_distances;
+
+    /**
+     * For each square, the push distance to the nearest target.
+     */
+    private final int[] m_nearestDistance;
+
+    /**
+     * For each square, the number of the box on it, or NO_BOX.
+     */
+    private final int[] m_boxAt;
+
+    /**
+     * The square index of each box.
+     */
+    private int[] m_boxSquares = new int[0];
+
+    /**
+     * The number of boxes.
+     */
+    private int m_boxCount;
+
+    /**
+     * The current bound, which may be NO_PATH or more.
+     */
+    private int m_bound;
+
+    /**
+     * The matching, as in the usual statement of the Hungarian algorithm:
+     * rows are boxes and columns are targets, both numbered from 1. If
+     * there are more boxes than targets, the extra columns are dummy
+     * targets any box can stay at for free. Column 0 is the algorithm's
+     * scratch column. These hold the row and column potentials, the row
+     * matched to each column (0 for none) and the column matched to each
+     * row.
+     */
+    private long[] m_rowPotential;
+    private long[] m_columnPotential;
+    private int[] m_columnMatch;
+    private int[] m_rowMatch;
+
+    /**
+     * Scratch arrays of the augmenting path search: the smallest reduced
+     * cost found to each column, the column each column was reached from,
+     * and whether each column is on the search tree.
+     */
+    private long[] m_minSlack;
+    private int[] m_reachedFrom;
+    private boolean[] m_isUsed;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a lower bound for the given board, and calculate the push
+     * distances. The board's walls and targets must not change while the
+     * bound is in use. The bound starts with no boxes; call reset() to read
+     * them.
+     *
+     * @param board The board.
+     * @param boundType The bound type (BOUND_XXX).
+     */
+    public LowerBound(Board board, int boundType)
+    {
+        m_board = board;
+        m_boundType = boundType;
+        m_squareCount = board.getSquareCount();
+        m_isFloor = new boolean[m_squareCount];
+        m_boxAt = new int[m_squareCount];
+        m_nearestDistance = new int[m_squareCount];
+
+        int targetCount = 0;
+        for (int square = 0; square < m_squareCount; square++)
+        {
+            m_isFloor[square] =
+                board.isInsideBoardAt(square) && !board.isWallAt(square);
+            if (m_isFloor[square] && board.isTargetAt(square))
+                targetCount++;
+        }
+        m_targets = new int[targetCount];
+        targetCount = 0;
+        for (int square = 0; square < m_squareCount; square++)
+        {
+            if (m_isFloor[square] && board.isTargetAt(square))
+                m_targets[targetCount++] = square;
+        }
+
+        m_distances = new int[m_targets.length * m_squareCount];
+        initDistances();
+    }
+
+    /**
+     * Get the bound type (BOUND_XXX).
+     */
+    public int getBoundType()
+    {
+        return m_boundType;
+    }
+
+    /**
+     * Get the number of pushes it takes to get a box from the given square
+     * to the nearest target, ignoring other boxes.
+     *
+     * @return The push distance, or UNSOLVABLE if no target can be reached.
+     */
+    public int getNearestTargetDistance(int square)
+    {
+        int distance = m_nearestDistance[square];
+        return (distance >= NO_PATH ? UNSOLVABLE : distance);
+    }
+
+    /**
+     * Read the box positions from the board, and calculate the bound from
+     * scratch.
+     *
+     * @return The bound, or UNSOLVABLE.
+     */
+    public int reset()
+    {
+        m_boxCount = 0;
+        for (int square = 0; square < m_squareCount; square++)
+        {
+            m_boxAt[square] = NO_BOX;
+            if (m_isFloor[square] && m_board.hasBoxAt(square))
+            {
+                if (m_boxCount == m_boxSquares.length)
+                {
+                    m_boxSquares =
+                        IntArrays.grow(m_boxSquares, m_boxCount + 8);
+                }
+                m_boxAt[square] = m_boxCount;
+                m_boxSquares[m_boxCount++] = square;
+            }
+        }
+
+        if (m_targets.length > m_boxCount)
+            m_bound = NO_PATH;
+        else if (m_boundType == BOUND_MATCHING)
+            initMatching();
+        else
+        {
+            m_bound = 0;
+            for (int box = 0; box < m_boxCount; box++)
+                m_bound += m_nearestDistance[m_boxSquares[box]];
+        }
+        return getBound();
+    }
+
+    /**
+     * Update the bound after a box moved.
+     *
+     * @param srcSquare The square the box moved from.
+     * @param targetSquare The square it moved to.
+     * @return The new bound, or UNSOLVABLE.
+     */
+    public int moveBox(int srcSquare, int targetSquare)
+    {
+        int box = m_boxAt[srcSquare];
+        m_boxAt[srcSquare] = NO_BOX;
+        m_boxAt[targetSquare] = box;
+        m_boxSquares[box] = targetSquare;
+
+        if (m_targets.length > m_boxCount)
+            return UNSOLVABLE;
+        if (m_boundType == BOUND_MATCHING)
+            rematchRow(box + 1);
+        else
+        {
+            m_bound += m_nearestDistance[targetSquare] -
+                m_nearestDistance[srcSquare];
+        }
+        return getBound();
+    }
+
+    /**
+     * Get the current bound.
+     *
+     * @return The bound, or UNSOLVABLE.
+     */
+    public int getBound()
+    {
+        return (m_bound >= NO_PATH ? UNSOLVABLE : m_bound);
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Calculate the push distances to every target, by pulling a box away
+     * from it in every possible way. A box can be pulled from a square to
+     * its neighbour if the neighbour, and the square after it (where the
+     * player would stand to push it back), are floor.
+     */
+    private void initDistances()
+    {
+        int[] dirOffsets = Move.getIndexOffsets(m_board.getStride());
+        int[] queue = new int[m_squareCount];
+        for (int square = 0; square < m_squareCount; square++)
+            m_nearestDistance[square] = (m_targets.length == 0 ? 0 : NO_PATH);
+
+        for (int target = 0; target < m_targets.length; target++)
+        {
+            int base = target * m_squareCount;
+            for (int square = 0; square < m_squareCount; square++)
+                m_distances[base + square] = NO_PATH;
+
+            int head = 0;
+            int tail = 0;
+            m_distances[base + m_targets[target]] = 0;
+            queue[tail++] = m_targets[target];
+            while (head < tail)
+            {
+                int square = queue[head++];
+                int distance = m_distances[base + square];
+                if (distance < m_nearestDistance[square])
+                    m_nearestDistance[square] = distance;
+                for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+                {
+                    // Floor squares are never on the board border, so the
+                    // player square is only looked at inside the array.
+                    int boxSquare = square - dirOffsets[dir];
+                    if (m_isFloor[boxSquare] &&
+                        m_isFloor[boxSquare - dirOffsets[dir]] &&
+                        m_distances[base + boxSquare] == NO_PATH)
+                    {
+                        m_distances[base + boxSquare] = distance + 1;
+                        queue[tail++] = boxSquare;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cost of matching a box to a target.
+     *
+     * @param row The box number, from 1.
+     * @param column The target number, from 1.
+     */
+    private int getCost(int row, int column)
+    {
+        if (column > m_targets.length)
+            return 0;
+        return m_distances[(column - 1) * m_squareCount +
+                           m_boxSquares[row - 1]];
+    }
+
+    /**
+     * Find the best matching from scratch, one box at a time.
+     */
+    private void initMatching()
+    {
+        int size = m_boxCount + 1;
+        if (m_rowPotential == null || m_rowPotential.length < size)
+        {
+            m_rowPotential = new long[size];
+            m_columnPotential = new long[size];
+            m_columnMatch = new int[size];
+            m_rowMatch = new int[size];
+            m_minSlack = new long[size];
+            m_reachedFrom = new int[size];
+            m_isUsed = new boolean[size];
+        }
+        for (int i = 0; i < size; i++)
+        {
+            m_rowPotential[i] = 0;
+            m_columnPotential[i] = 0;
+            m_columnMatch[i] = 0;
+            m_rowMatch[i] = 0;
+        }
+        for (int row = 1; row <= m_boxCount; row++)
+            augment(row);
+        updateMatchingCost();
+    }
+
+    /**
+     * Repair the best matching after the costs of one box changed: drop its
+     * match, lower its potential so that all its reduced costs are
+     * non-negative again, and match it once more.
+     *
+     * @param row The box number, from 1.
+     */
+    private void rematchRow(int row)
+    {
+        m_columnMatch[m_rowMatch[row]] = 0;
+        m_rowMatch[row] = 0;
+        long potential = Long.MAX_VALUE;
+        for (int column = 1; column <= m_boxCount; column++)
+        {
+            long reduced = getCost(row, column) - m_columnPotential[column];
+            if (reduced < potential)
+                potential = reduced;
+        }
+        m_rowPotential[row] = potential;
+        augment(row);
+        updateMatchingCost();
+    }
+
+    /**
+     * Match an unmatched row, along the shortest augmenting path (by
+     * reduced costs). The potentials stay feasible, and tight on all matched
+     * pairs, so once every row is matched the matching is the best one.
+     *
+     * @param row The box number, from 1.
+     */
+    private void augment(int row)
+    {
+        int size = m_boxCount;
+        m_columnMatch[0] = row;
+        for (int column = 0; column <= size; column++)
+        {
+            m_minSlack[column] = Long.MAX_VALUE;
+            m_isUsed[column] = false;
+        }
+
+        int column = 0;
+        do
+        {
+            m_isUsed[column] = true;
+            int curRow = m_columnMatch[column];
+            long delta = Long.MAX_VALUE;
+            int nextColumn = 0;
+            for (int j = 1; j <= size; j++)
+            {
+                if (m_isUsed[j])
+                    continue;
+                long slack = getCost(curRow, j) - m_rowPotential[curRow] -
+                    m_columnPotential[j];
+                if (slack < m_minSlack[j])
+                {
+                    m_minSlack[j] = slack;
+                    m_reachedFrom[j] = column;
+                }
+                if (m_minSlack[j] < delta)
+                {
+                    delta = m_minSlack[j];
+                    nextColumn = j;
+                }
+            }
+            for (int j = 0; j <= size; j++)
+            {
+                if (m_isUsed[j])
+                {
+                    m_rowPotential[m_columnMatch[j]] += delta;
+                    m_columnPotential[j] -= delta;
+                }
+                else
+                    m_minSlack[j] -= delta;
+            }
+            column = nextColumn;
+        } while (m_columnMatch[column] != 0);
+
+        // Flip the matches along the path.
+        do
+        {
+            int prevColumn = m_reachedFrom[column];
+            m_columnMatch[column] = m_columnMatch[prevColumn];
+            m_rowMatch[m_columnMatch[column]] = column;
+            column = prevColumn;
+        } while (column != 0);
+    }
+
+    /**
+     * Set the bound to the cost of the current matching.
+     */
+    private void updateMatchingCost()
+    {
+        m_bound = 0;
+        for (int column = 1; column <= m_boxCount; column++)
+            m_bound += getCost(m_columnMatch[column], column);
+    }
+}
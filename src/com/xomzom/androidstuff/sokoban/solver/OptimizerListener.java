@@ -0,0 +1,43 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * A listener for the progress of a SolutionOptimizer. It is called on the
+ * optimizer's thread, every time a better solution is found, so a caller
+ * can keep the best solution so far even if the run is cut short.
+ *
+ * @author Dedi Hirschfeld
+ */
+public interface OptimizerListener
+{
+    /**
+     * A better solution was found.
+     *
+     * @param solution The solution moves. The list must not be changed.
+     * @param pushCount The number of pushes in the solution.
+     */
+    void solutionImproved(List<Move> solution, int pushCount);
+}
@@ -0,0 +1,289 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * Generates the box pushes (macro moves) of a board position, for searches
+ * that work a push at a time rather than a player step at a time. A push is
+ * legal when the square behind the box is in the player's reachable area,
+ * found by a single flood fill, and the square in front of it is free.
+ * All positions with the same boxes and the player in the same area are
+ * the same search state; getNormalizedPlayer() gives the square that stands
+ * for the player in all of them.
+ *
+ * Pushes are encoded as single ints: the square index of the box (see
+ * Board.getSquareIndex()) shifted left by two, ored with the direction.
+ * Playing a push moves the player straight to the square behind the box,
+ * so searches don't pay for the walk; expandPushes() fills the walks back
+ * in, turning a list of pushes into plain moves for playback.
+ *
+ * A generator works on the given board itself, whose walls and targets
+ * must not change while it is in use. It doesn't allocate while searching.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class PushGenerator
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The board to generate pushes for.
+     */
+    private final Board m_board;
+
+    /**
+     * For each square, whether it is a floor square inside the board.
+     */
+    private final boolean[] m_isFloor;
+
+    /**
+     * The square index offset of a step in each direction.
+     */
+    private final int[] m_dirOffsets;
+
+    /**
+     * The pushes found by the last findPushes().
+     */
+    private int[] m_pushes = new int[64];
+
+    /**
+     * The number of pushes found by the last findPushes().
+     */
+    private int m_pushCount;
+
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a push generator for the given board.
+     *
+     * @param board The board.
+     */
+    public PushGenerator(Board board)
+    {
+        m_board = board;
+        int squareCount = board.getSquareCount();
+        m_isFloor = new boolean[squareCount];
+        m_dirOffsets = Move.getIndexOffsets(board.getStride());
+        for (int square = 0; square < squareCount; square++)
+        {
+            m_isFloor[square] =
+                board.isInsideBoardAt(square) && !board.isWallAt(square);
+        }
+    }
+
+    /**
+     * Encode a push.
+     *
+     * @param boxSquare The square index of the box to push.
+     * @param dir The direction to push it to.
+     */
+    public static int makePush(int boxSquare, int dir)
+    {
+        return boxSquare << 2 | dir;
+    }
+
+    /**
+     * Get the square index of the box a push moves.
+     */
+    public static int getPushSquare(int push)
+    {
+        return push >> 2;
+    }
+
+    /**
+     * Get the direction of a push.
+     */
+    public static int getPushDir(int push)
+    {
+        return push & Move.STEP_DIR_MASK;
+    }
+
+    /**
+     * Check whether the given square is a floor square inside the board.
+     */
+    public boolean isFloor(int square)
+    {
+        return m_isFloor[square];
+    }
+
+    /**
+     * Find the player's reachable area, and all the pushes that can be done
+     * from it. The pushes are listed by the square the player pushes from,
+     * in the order the flood fill reached them, and then by direction.
+     *
+     * @return The number of pushes found.
+     */
+    public int findPushes()
+    {
+        m_pushCount = 0;
+        int reachableCount = m_board.findReachableSquares();
+        for (int n = 0; n < reachableCount; n++)
+        {
+            int square = m_board.getReachableSquare(n);
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+            {
+                int offset = m_dirOffsets[dir];
+                int next = square + offset;
+                if (m_board.hasBoxAt(next) && isFree(next + offset))
+                {
+                    if (m_pushCount == m_pushes.length)
+                        m_pushes = IntArrays.grow(m_pushes, m_pushCount * 2);
+                    m_pushes[m_pushCount++] = makePush(next, dir);
+                }
+            }
+        }
+        return m_pushCount;
+    }
+
+    /**
+     * Get one of the pushes found by the last findPushes().
+     *
+     * @param n The number of the push, from 0 to the push count - 1.
+     */
+    public int getPush(int n)
+    {
+        return m_pushes[n];
+    }
+
+    /**
+     * Get the normalized player square of the position the last
+     * findPushes() was called on - the top-left square of the reachable
+     * area.
+     */
+    public int getNormalizedPlayer()
+    {
+        return m_board.getReachableTopLeft();
+    }
+
+    /**
+     * Play a push on the board. The player is moved to the square behind
+     * the box, without walking there, and then pushes it.
+     *
+     * @param push The push.
+     * @return The board step code of the push (see Board.move(int)), for
+     * undoing it.
+     */
+    public int doPush(int push)
+    {
+        int boxSquare = getPushSquare(push);
+        int dir = getPushDir(push);
+        setPlayerSquare(boxSquare - m_dirOffsets[dir]);
+        return m_board.move(dir);
+    }
+
+    /**
+     * Undo a push played by doPush(). The player is left on the square it
+     * pushed from.
+     *
+     * @param step The step code doPush() returned.
+     */
+    public void undoPush(int step)
+    {
+        m_board.undoMove(step);
+    }
+
+    /**
+     * Turn a list of pushes into plain moves, walking the player to each
+     * push along a shortest path that doesn't move any box. The pushes are
+     * played on the board from its current position, and undone afterwards.
+     *
+     * @param pushes The pushes. They must be legal, in order.
+     * @param pushCount The number of pushes.
+     * @return The moves.
+     */
+    public List<Move> expandPushes(int[] pushes, int pushCount)
+    {
+        List<Move> moves = new ArrayList<Move>();
+        for (int i = 0; i < pushCount; i++)
+            appendPushMoves(pushes[i], moves);
+
+        for (int i = moves.size() - 1; i >= 0; i--)
+            m_board.undoMove(moves.get(i));
+        return moves;
+    }
+
+    /**
+     * Walk the player to a push, and do it, adding the moves to the given
+     * list. The moves are played on the board.
+     *
+     * @param push The push. It must be legal.
+     * @param moves The list to add the moves to.
+     */
+    public void appendPushMoves(int push, List<Move> moves)
+    {
+        int boxSquare = getPushSquare(push);
+        int dir = getPushDir(push);
+        appendWalk(boxSquare - m_dirOffsets[dir], moves);
+        Move move = new Move(dir);
+        m_board.move(move);
+        moves.add(move);
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Check whether a square is a floor square with no box on it.
+     */
+    private boolean isFree(int square)
+    {
+        return m_isFloor[square] && !m_board.hasBoxAt(square);
+    }
+
+    /**
+     * Walk the player to the given square, along a shortest path that
+     * doesn't move any box, and add the moves to the given list.
+     */
+    private void appendWalk(int targetSquare, List<Move> moves)
+    {
+        // The walk is read before it is played, since it only lasts until
+        // the board changes.
+        int walkLength = m_board.findWalk(targetSquare);
+        int firstMove = moves.size();
+        for (int n = 0; n < walkLength; n++)
+            moves.add(new Move(m_board.getWalkDir(n)));
+        for (int i = firstMove; i < moves.size(); i++)
+            m_board.move(moves.get(i));
+    }
+
+    /**
+     * Put the player on the square with the given index.
+     */
+    private void setPlayerSquare(int square)
+    {
+        m_board.setPlayerPosition(m_board.getSquareX(square),
+                m_board.getSquareY(square));
+    }
+}
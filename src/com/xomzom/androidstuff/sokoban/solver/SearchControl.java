@@ -0,0 +1,128 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared control of a solver run: the node and time limits, and a stop
+ * flag. A single control is shared by all the solvers taking part in one
+ * run, so any of them can stop the others - for example, when it finds a
+ * solution. Solvers report their work here in batches, so the shared
+ * counters are only touched once every few hundred nodes.
+ *
+ * @author Dedi Hirschfeld
+ */
+class SearchControl
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The maximal number of nodes to expand, or 0 for no limit.
+     */
+    private final long m_nodeLimit;
+
+    /**
+     * The maximal run time in milliseconds, or 0 for no limit.
+     */
+    private final long m_timeLimit;
+
+    /**
+     * The time the run started, in milliseconds.
+     */
+    private final long m_startTime = System.currentTimeMillis();
+
+    /**
+     * The number of nodes reported so far, by all solvers.
+     */
+    private final AtomicLong m_nodeCount = new AtomicLong();
+
+    /**
+     * A flag to indicate that the run should stop.
+     */
+    private volatile boolean m_stopped;
+
+    /**
+     * A flag to indicate that the run was stopped by one of the limits.
+     */
+    private volatile boolean m_limitReached;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a run control.
+     *
+     * @param nodeLimit The node limit, or 0 for no limit.
+     * @param timeLimit The time limit in milliseconds, or 0 for no limit.
+     */
+    SearchControl(long nodeLimit, long timeLimit)
+    {
+        m_nodeLimit = nodeLimit;
+        m_timeLimit = timeLimit;
+    }
+
+    /**
+     * Report a batch of expanded nodes, and check the limits.
+     *
+     * @param nodes The number of nodes expanded since the last report.
+     * @return true if the run should stop.
+     */
+    boolean reportNodes(long nodes)
+    {
+        long total = m_nodeCount.addAndGet(nodes);
+        if ((m_nodeLimit > 0 && total >= m_nodeLimit) ||
+            (m_timeLimit > 0 &&
+             System.currentTimeMillis() - m_startTime >= m_timeLimit))
+        {
+            m_limitReached = true;
+            m_stopped = true;
+        }
+        return m_stopped;
+    }
+
+    /**
+     * Stop the run.
+     */
+    void stop()
+    {
+        m_stopped = true;
+    }
+
+    /**
+     * Check whether the run should stop.
+     */
+    boolean isStopped()
+    {
+        return m_stopped;
+    }
+
+    /**
+     * Check whether the run was stopped by one of the limits.
+     */
+    boolean isLimitReached()
+    {
+        return m_limitReached;
+    }
+}
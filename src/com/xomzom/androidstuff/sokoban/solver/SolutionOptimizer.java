@@ -0,0 +1,713 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * Shortens an existing solution. The solution is first reduced to its
+ * pushes, with the walks between them replaced by shortest walks. Then
+ * stretches of it - the positions before and after a run of pushes - are
+ * searched for a cheaper way to get from the first position to the second,
+ * and any cheaper way found is spliced in. The stretches start a couple of
+ * pushes long, and double in length up to the whole solution (for which
+ * any solved position will do as the end). Passes over all lengths are
+ * repeated until a pass finds nothing better, or time runs out.
+ *
+ * Each stretch is searched with a uniform cost search over pushes, where
+ * a push costs the walk to it plus one move, and one push. The objective
+ * sets which of the two counts first:
+ * <ul>
+ * <li>OBJECTIVE_MOVES - as few moves as possible, then as few pushes.</li>
+ * <li>OBJECTIVE_PUSHES - as few pushes as possible, then as few moves.</li>
+ * </ul>
+ * A stretch search gives up after a node limit, so long stretches of hard
+ * levels are skipped rather than searched for ever. The result is the best
+ * solution found, which is optimal for every stretch that was searched
+ * through, but not necessarily optimal overall.
+ *
+ * The optimizer runs within a time budget, and reports every improvement
+ * to its listener as it goes. An optimizer is single threaded; to use
+ * several cores, run one optimizer per level, each on its own board.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class SolutionOptimizer
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Objective - fewest moves, then fewest pushes.
+     */
+    public final static int OBJECTIVE_MOVES = 0;
+
+    /**
+     * Objective - fewest pushes, then fewest moves.
+     */
+    public final static int OBJECTIVE_PUSHES = 1;
+
+    /**
+     * The default node limit of a single stretch search.
+     */
+    public final static int DEFAULT_SEGMENT_NODE_LIMIT = 50000;
+
+    /**
+     * The length, in pushes, of the shortest stretches searched.
+     */
+    private final static int MIN_SEGMENT_PUSHES = 2;
+
+    /**
+     * The weight of the count the objective puts first, in a search cost.
+     */
+    private final static long PRIMARY_WEIGHT = 1L << 32;
+
+    /**
+     * The time limit is checked once every this many nodes. Must be a power
+     * of two minus one.
+     */
+    private final static long LIMIT_CHECK_MASK = 1023;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board. Solutions start at its position when optimize() is called.
+     */
+    private final Board m_board;
+
+    /**
+     * The objective (OBJECTIVE_XXX).
+     */
+    private final int m_objective;
+
+    /**
+     * The push generator, used to read and expand push lists.
+     */
+    private final PushGenerator m_pushGenerator;
+
+    /**
+     * The square index offset of a step in each direction.
+     */
+    private final int[] m_dirOffsets;
+
+    /**
+     * The number of targets on the board's floor.
+     */
+    private final int m_targetCount;
+
+    /**
+     * The maximal run time, in milliseconds, or 0 for no limit.
+     */
+    private long m_timeLimit;
+
+    /**
+     * The node limit of a single stretch search.
+     */
+    private int m_segmentNodeLimit = DEFAULT_SEGMENT_NODE_LIMIT;
+
+    /**
+     * The listener to report improvements to, or null.
+     */
+    private OptimizerListener m_listener;
+
+    /**
+     * The control of the current run.
+     */
+    private SearchControl m_control;
+
+    /**
+     * The number of nodes searched in the current run.
+     */
+    private long m_nodeCount;
+
+    /**
+     * The pushes of the best solution so far.
+     */
+    private int[] m_pushes;
+
+    /**
+     * The best solution so far.
+     */
+    private List<Move> m_solution;
+
+    /**
+     * Scratch marks of the squares with boxes, in the position being
+     * expanded. A square has a box if its mark equals m_boxStamp.
+     */
+    private final int[] m_boxMark;
+    private int m_boxStamp;
+
+    /**
+     * Scratch marks and walk distances of the squares the player can
+     * reach, in the position being expanded.
+     */
+    private final int[] m_walkMark;
+    private final int[] m_walkDistance;
+    private int m_walkStamp;
+
+    /**
+     * The walk search queue.
+     */
+    private final int[] m_queue;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an optimizer for solutions of the given board.
+     *
+     * @param board The board. Its walls and targets must not change while
+     * the optimizer is in use.
+     * @param objective The objective (OBJECTIVE_XXX).
+     */
+    public SolutionOptimizer(Board board, int objective)
+    {
+        m_board = board;
+        m_objective = objective;
+        m_pushGenerator = new PushGenerator(board);
+        m_dirOffsets = Move.getIndexOffsets(board.getStride());
+        int squareCount = board.getSquareCount();
+        m_boxMark = new int[squareCount];
+        m_walkMark = new int[squareCount];
+        m_walkDistance = new int[squareCount];
+        m_queue = new int[squareCount];
+
+        int targetCount = 0;
+        for (int square = 0; square < squareCount; square++)
+        {
+            if (m_pushGenerator.isFloor(square) && board.isTargetAt(square))
+                targetCount++;
+        }
+        m_targetCount = targetCount;
+    }
+
+    /**
+     * Set the time budget of a run.
+     *
+     * @param timeLimit The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTimeLimit(long timeLimit)
+    {
+        m_timeLimit = timeLimit;
+    }
+
+    /**
+     * Set the node limit of a single stretch search.
+     */
+    public void setSegmentNodeLimit(int segmentNodeLimit)
+    {
+        m_segmentNodeLimit = segmentNodeLimit;
+    }
+
+    /**
+     * Set the listener to report improvements to.
+     *
+     * @param listener The listener, or null for none.
+     */
+    public void setListener(OptimizerListener listener)
+    {
+        m_listener = listener;
+    }
+
+    /**
+     * Get the number of nodes searched by the last run.
+     */
+    public long getNodeCount()
+    {
+        return m_nodeCount;
+    }
+
+    /**
+     * Optimize a solution of the board, from its current position. The board
+     * is left in that position.
+     *
+     * @param solution The moves of a solution.
+     * @return The best solution found. It is never worse than the given one.
+     * @throws IllegalArgumentException if the moves don't solve the board.
+     */
+    public List<Move> optimize(List<Move> solution)
+    {
+        m_control = new SearchControl(0, m_timeLimit);
+        m_nodeCount = 0;
+        m_solution = solution;
+        m_pushes = readPushes(solution);
+
+        // Expanding the pushes again replaces the walks by shortest walks.
+        tryPushes(m_pushes);
+
+        boolean improved = true;
+        while (improved && !m_control.isStopped())
+        {
+            improved = false;
+            int segmentPushes = MIN_SEGMENT_PUSHES;
+            while (!m_control.isStopped())
+            {
+                int step = Math.max(segmentPushes / 2, 1);
+                for (int first = 0;
+                     first < m_pushes.length && !m_control.isStopped();
+                     first += step)
+                {
+                    int last = Math.min(first + segmentPushes, m_pushes.length);
+                    if (optimizeSegment(first, last))
+                        improved = true;
+                }
+                if (segmentPushes >= m_pushes.length)
+                    break;
+                segmentPushes *= 2;
+            }
+        }
+        return m_solution;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Play a solution on the board, and list its pushes. The board is
+     * restored afterwards.
+     *
+     * @throws IllegalArgumentException if the moves don't solve the board.
+     */
+    private int[] readPushes(List<Move> solution)
+    {
+        int[] steps = new int[solution.size()];
+        int[] pushes = new int[solution.size()];
+        int pushCount = 0;
+        int done = 0;
+        boolean isLegal = true;
+        for (Move move : solution)
+        {
+            int dir = move.getDir();
+            int boxSquare = m_board.getSquareIndex(m_board.getPlayerX(),
+                    m_board.getPlayerY()) + m_dirOffsets[dir];
+            int step = m_board.move(dir);
+            if (step == Move.STEP_ILLEGAL)
+            {
+                isLegal = false;
+                break;
+            }
+            if ((step & Move.STEP_PUSH) != 0)
+                pushes[pushCount++] = PushGenerator.makePush(boxSquare, dir);
+            steps[done++] = step;
+        }
+        boolean isSolved = isLegal && m_board.isSolved();
+        for (int i = done - 1; i >= 0; i--)
+            m_board.undoMove(steps[i]);
+        if (!isSolved)
+            throw new IllegalArgumentException("Not a solution");
+        return copyOf(pushes, 0, pushCount);
+    }
+
+    /**
+     * Expand a list of pushes into moves, and keep it if it's better than
+     * the best solution so far.
+     *
+     * @return true if the pushes were kept.
+     */
+    private boolean tryPushes(int[] pushes)
+    {
+        List<Move> solution =
+            m_pushGenerator.expandPushes(pushes, pushes.length);
+        long cost = getCost(solution.size(), pushes.length);
+        if (cost >= getCost(m_solution.size(), m_pushes.length))
+            return false;
+
+        m_solution = solution;
+        m_pushes = pushes;
+        if (m_listener != null)
+            m_listener.solutionImproved(solution, pushes.length);
+        return true;
+    }
+
+    /**
+     * Search for a cheaper way to do a stretch of the best solution, and
+     * splice it in if one is found.
+     *
+     * @param first The number of pushes before the stretch.
+     * @param last The number of pushes at the end of the stretch.
+     * @return true if the solution was improved.
+     */
+    private boolean optimizeSegment(int first, int last)
+    {
+        Node start = getPosition(first);
+        Node goal = (last == m_pushes.length ? null : getPosition(last));
+        long currentCost = getSegmentCost(start, first, last);
+        Node end = search(start, goal, currentCost);
+        if (end == null)
+            return false;
+
+        int segmentLength = 0;
+        for (Node node = end; node.m_parent != null; node = node.m_parent)
+            segmentLength++;
+        int[] pushes = new int[first + segmentLength + m_pushes.length - last];
+        System.arraycopy(m_pushes, 0, pushes, 0, first);
+        int index = first + segmentLength;
+        for (Node node = end; node.m_parent != null; node = node.m_parent)
+            pushes[--index] = node.m_push;
+        System.arraycopy(m_pushes, last, pushes, first + segmentLength,
+                m_pushes.length - last);
+        return tryPushes(pushes);
+    }
+
+    /**
+     * Search for the cheapest way from a position to another.
+     *
+     * @param start The position to start at.
+     * @param goal The position to get to, or null for any solved position.
+     * @param costLimit Only ways cheaper than this are looked for.
+     * @return The goal node, or null if no cheaper way was found within the
+     * limits.
+     */
+    private Node search(Node start, Node goal, long costLimit)
+    {
+        PriorityQueue<Node> open =
+            new PriorityQueue<Node>(64, new Comparator<Node>()
+            {
+                public int compare(Node first, Node second)
+                {
+                    return (first.m_cost < second.m_cost ? -1 :
+                            (first.m_cost > second.m_cost ? 1 : 0));
+                }
+            });
+        Map<Node, Node> best = new HashMap<Node, Node>();
+        open.add(start);
+        best.put(start, start);
+        int expanded = 0;
+        while (!open.isEmpty())
+        {
+            Node node = open.poll();
+            if (best.get(node) != node)
+                continue;
+            if (node.m_cost >= costLimit)
+                return null;
+            if (goal == null ? isSolved(node) : node.equals(goal))
+                return node;
+            if (++expanded > m_segmentNodeLimit || countNode())
+                return null;
+            expand(node, open, best);
+        }
+        return null;
+    }
+
+    /**
+     * Add all the positions one push away from a node to the search.
+     */
+    private void expand(Node node, PriorityQueue<Node> open,
+                        Map<Node, Node> best)
+    {
+        int boxStamp = markBoxes(node.m_boxes);
+        int reachableCount = findWalks(node.m_player, boxStamp);
+        for (int n = 0; n < reachableCount; n++)
+        {
+            int square = m_queue[n];
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+            {
+                int offset = m_dirOffsets[dir];
+                int boxSquare = square + offset;
+                int dest = boxSquare + offset;
+                if (m_boxMark[boxSquare] != boxStamp ||
+                    m_boxMark[dest] == boxStamp ||
+                    !m_pushGenerator.isFloor(dest) ||
+                    m_board.isDeadSquareAt(dest))
+                {
+                    continue;
+                }
+
+                Node child = new Node(moveBox(node.m_boxes, boxSquare, dest),
+                        boxSquare);
+                child.m_cost = node.m_cost +
+                    getCost(m_walkDistance[square] + 1, 1);
+                Node known = best.get(child);
+                if (known != null && known.m_cost <= child.m_cost)
+                    continue;
+                child.m_parent = node;
+                child.m_push = PushGenerator.makePush(boxSquare, dir);
+                best.put(child, child);
+                open.add(child);
+            }
+        }
+    }
+
+    /**
+     * Count a searched node, and check the time limit every so often.
+     *
+     * @return true if the run should stop.
+     */
+    private boolean countNode()
+    {
+        m_nodeCount++;
+        if ((m_nodeCount & LIMIT_CHECK_MASK) == 0)
+            return m_control.reportNodes(LIMIT_CHECK_MASK + 1);
+        return m_control.isStopped();
+    }
+
+    /**
+     * Get the position after the given number of pushes of the best
+     * solution so far.
+     */
+    private Node getPosition(int pushCount)
+    {
+        int[] boxes = new int[0];
+        for (int square = 0; square < m_boxMark.length; square++)
+        {
+            if (m_pushGenerator.isFloor(square) && m_board.hasBoxAt(square))
+            {
+                boxes = copyOf(boxes, 0, boxes.length + 1);
+                boxes[boxes.length - 1] = square;
+            }
+        }
+        int player = m_board.getSquareIndex(m_board.getPlayerX(),
+                m_board.getPlayerY());
+        for (int i = 0; i < pushCount; i++)
+        {
+            int boxSquare = PushGenerator.getPushSquare(m_pushes[i]);
+            int dir = PushGenerator.getPushDir(m_pushes[i]);
+            boxes = moveBox(boxes, boxSquare, boxSquare + m_dirOffsets[dir]);
+            player = boxSquare;
+        }
+        return new Node(boxes, player);
+    }
+
+    /**
+     * Get the search cost of a stretch of the best solution so far.
+     *
+     * @param start The position at the start of the stretch.
+     * @param first The number of pushes before the stretch.
+     * @param last The number of pushes at the end of the stretch.
+     */
+    private long getSegmentCost(Node start, int first, int last)
+    {
+        int[] boxes = start.m_boxes;
+        int player = start.m_player;
+        long cost = 0;
+        for (int i = first; i < last; i++)
+        {
+            int boxSquare = PushGenerator.getPushSquare(m_pushes[i]);
+            int dir = PushGenerator.getPushDir(m_pushes[i]);
+            int pushFrom = boxSquare - m_dirOffsets[dir];
+            findWalks(player, markBoxes(boxes));
+            cost += getCost(m_walkDistance[pushFrom] + 1, 1);
+            boxes = moveBox(boxes, boxSquare, boxSquare + m_dirOffsets[dir]);
+            player = boxSquare;
+        }
+        return cost;
+    }
+
+    /**
+     * Get the search cost of the given number of moves and pushes.
+     */
+    private long getCost(int moveCount, int pushCount)
+    {
+        if (m_objective == OBJECTIVE_PUSHES)
+            return pushCount * PRIMARY_WEIGHT + moveCount;
+        return moveCount * PRIMARY_WEIGHT + pushCount;
+    }
+
+    /**
+     * Check whether all the targets of a position have boxes on them.
+     */
+    private boolean isSolved(Node node)
+    {
+        int coveredTargets = 0;
+        for (int box = 0; box < node.m_boxes.length; box++)
+        {
+            if (m_board.isTargetAt(node.m_boxes[box]))
+                coveredTargets++;
+        }
+        return coveredTargets == m_targetCount;
+    }
+
+    /**
+     * Mark the squares of the given boxes.
+     *
+     * @return The stamp they were marked with.
+     */
+    private int markBoxes(int[] boxes)
+    {
+        if (m_boxStamp == Integer.MAX_VALUE)
+        {
+            m_boxStamp = 0;
+            Arrays.fill(m_boxMark, 0);
+        }
+        m_boxStamp++;
+        for (int box = 0; box < boxes.length; box++)
+            m_boxMark[boxes[box]] = m_boxStamp;
+        return m_boxStamp;
+    }
+
+    /**
+     * Find the squares the player can walk to without pushing a box, and the
+     * walk distance to each. The squares are left in the queue, in order of
+     * distance.
+     *
+     * @param player The player's square.
+     * @param boxStamp The stamp the boxes are marked with.
+     * @return The number of reachable squares.
+     */
+    private int findWalks(int player, int boxStamp)
+    {
+        if (m_walkStamp == Integer.MAX_VALUE)
+        {
+            m_walkStamp = 0;
+            Arrays.fill(m_walkMark, 0);
+        }
+        int stamp = ++m_walkStamp;
+        int head = 0;
+        int tail = 0;
+        m_walkMark[player] = stamp;
+        m_walkDistance[player] = 0;
+        m_queue[tail++] = player;
+        while (head < tail)
+        {
+            int square = m_queue[head++];
+            for (int dir = 0; dir < Move.DIR_COUNT; dir++)
+            {
+                int next = square + m_dirOffsets[dir];
+                if (m_walkMark[next] != stamp &&
+                    m_boxMark[next] != boxStamp &&
+                    m_pushGenerator.isFloor(next))
+                {
+                    m_walkMark[next] = stamp;
+                    m_walkDistance[next] = m_walkDistance[square] + 1;
+                    m_queue[tail++] = next;
+                }
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Move a box in a sorted list of box squares.
+     *
+     * @return A new sorted list.
+     */
+    private static int[] moveBox(int[] boxes, int srcSquare, int targetSquare)
+    {
+        int[] newBoxes = new int[boxes.length];
+        int count = 0;
+        boolean isPlaced = false;
+        for (int box = 0; box < boxes.length; box++)
+        {
+            int square = boxes[box];
+            if (square == srcSquare)
+                continue;
+            if (!isPlaced && targetSquare < square)
+            {
+                newBoxes[count++] = targetSquare;
+                isPlaced = true;
+            }
+            newBoxes[count++] = square;
+        }
+        if (!isPlaced)
+            newBoxes[count] = targetSquare;
+        return newBoxes;
+    }
+
+    /**
+     * Helper method - copy a range of an int array into a new array, padded
+     * with zeros if needed.
+     */
+    private static int[] copyOf(int[] array, int start, int length)
+    {
+        int[] newArray = new int[length];
+        System.arraycopy(array, start, newArray, 0,
+                Math.min(length, array.length - start));
+        return newArray;
+    }
+
+    /**
+     * A position in a stretch search: the sorted box squares and the player
+     * square. Two nodes are equal if their positions are.
+     */
+    private static class Node
+    {
+        /**
+         * The sorted box squares.
+         */
+        final int[] m_boxes;
+
+        /**
+         * The player square.
+         */
+        final int m_player;
+
+        /**
+         * The hash code of the position.
+         */
+        private final int m_hashCode;
+
+        /**
+         * The cost of getting here from the start of the search.
+         */
+        long m_cost;
+
+        /**
+         * The node this one was reached from, or null for the start.
+         */
+        Node m_parent;
+
+        /**
+         * The push that led here from the parent.
+         */
+        int m_push;
+
+        /**
+         * Create a node.
+         */
+        Node(int[] boxes, int player)
+        {
+            m_boxes = boxes;
+            m_player = player;
+            m_hashCode = Arrays.hashCode(boxes) * 31 + player;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Node))
+                return false;
+            Node node = (Node)other;
+            return m_player == node.m_player &&
+                Arrays.equals(m_boxes, node.m_boxes);
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * A Sokoban solver. The solver runs an IDA* search over box pushes (rather
+ * than single player steps), generated by a PushGenerator: at every node,
+ * the player's reachable area is flood-filled, and every box side the
+ * player can get to is a candidate push. Positions that only differ by
+ * where the player stands inside the same reachable area are merged in a
+ * transposition table, keyed on the board's Zobrist key of the boxes
+ * combined with the key of the top-left reachable square.
+ *
+ * The pushes are played on the given board itself, and the board is left in
+ * its original position when the solver is done. The solution is returned
+ * as a list of plain moves, with the walks between pushes filled in.
+ *
+ * The heuristic is a LowerBound - by default, the cost of the best matching
+ * of boxes to targets, by push distances - which never over-estimates the
+ * number of pushes needed. That makes the solutions push-optimal.
+ *
+ * Pushes the board reports as deadlocks (into a dead square, or freezing a
+ * box off target) are not searched, and neither are positions with a corral
+ * deadlock.
+ *
+ * A solver is single threaded. The package-private operations bellow let
+ * the parallel solver run several solvers, each on its own copy of the
+ * board, over parts of the same search tree, sharing one state table.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class Solver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * Marker for a search bound that can't be reached.
+     */
+    final static int INFINITE_COST = Integer.MAX_VALUE;
+
+    /**
+     * The limits (and memory usage) are checked once every this many nodes.
+     * Must be a power of two minus one.
+     */
+    private final static long LIMIT_CHECK_MASK = 1023;
+
+    /**
+     * Return value of expandNode() for a node that was cut off.
+     */
+    final static int NODE_PRUNED = -1;
+
+    /**
+     * Return value of expandNode() for a solved position.
+     */
+    final static int NODE_SOLVED = -2;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board to solve.
+     */
+    private final Board m_board;
+
+    /**
+     * The length of a board row in square indices (see Board.getStride()).
+     */
+    private final int m_width;
+
+    /**
+     * The generator of the pushes of each position. It also knows which
+     * squares are floor - inside the board and not walls. Squares on the
+     * board edge are never floor, so a floor square always has four
+     * neighbours.
+     */
+    private final PushGenerator m_pushGenerator;
+
+    /**
+     * The square index change when moving in each direction (indexed by the
+     * Move.DIR_* constants).
+     */
+    private final int[] m_dirOffsets;
+
+    /**
+     * The heuristic. It keeps its own copy of the box positions.
+     */
+    private LowerBound m_lowerBound;
+
+    /**
+     * The heuristic value of the current position, or
+     * LowerBound.UNSOLVABLE.
+     */
+    private int m_heuristic;
+
+    /**
+     * The candidate pushes of all nodes on the current search path, each
+     * encoded as (box square << 2 | direction).
+     */
+    private int[] m_pushStack = new int[256];
+
+    /**
+     * The number of entries used in the push stack.
+     */
+    private int m_pushStackSize;
+
+    /**
+     * The pushes on the current search path, encoded as in the push stack.
+     */
+    private int[] m_pathPushes = new int[256];
+
+    /**
+     * The board step codes of the pushes applied by applyPushes(), for
+     * undoing them.
+     */
+    private int[] m_pathSteps = new int[16];
+
+    /**
+     * The number of pushes in the solution found.
+     */
+    private int m_solutionLength;
+
+    /**
+     * The transposition table, holding the key of each state seen in the
+     * current iteration and the depth it was seen at.
+     */
+    private final StateTable m_transpositions;
+
+    /**
+     * The smallest cost that exceeded the current bound.
+     */
+    private int m_nextBound;
+
+    /**
+     * The maximal number of nodes to expand, or 0 for no limit.
+     */
+    private long m_nodeLimit;
+
+    /**
+     * The maximal run time in milliseconds, or 0 for no limit.
+     */
+    private long m_timeLimit;
+
+    /**
+     * Whether deadlocked pushes and positions are pruned.
+     */
+    private boolean m_deadlockChecks = true;
+
+    /**
+     * The control of the current run.
+     */
+    private SearchControl m_control;
+
+    /**
+     * A flag to indicate that the search was stopped, by a limit or by
+     * another solver sharing the run control.
+     */
+    private boolean m_aborted;
+
+    /**
+     * The statistics of the last run.
+     */
+    private final SolverStatistics m_statistics = new SolverStatistics();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a solver for the given board. The board's walls and targets
+     * must not change while the solver is in use, but the player and boxes
+     * may be moved between calls to solve().
+     *
+     * @param board The board to solve.
+     */
+    public Solver(Board board)
+    {
+        this(board, new TranspositionTable());
+    }
+
+    /**
+     * Create a solver for the given board, using the given state table.
+     *
+     * @param board The board to solve.
+     * @param transpositions The state table to use.
+     */
+    Solver(Board board, StateTable transpositions)
+    {
+        m_board = board;
+        m_transpositions = transpositions;
+        m_width = board.getStride();
+        m_pushGenerator = new PushGenerator(board);
+        m_lowerBound = new LowerBound(board, LowerBound.BOUND_MATCHING);
+
+        m_dirOffsets = Move.getIndexOffsets(m_width);
+    }
+
+    /**
+     * Set the maximal number of nodes to expand.
+     *
+     * @param nodeLimit The node limit, or 0 for no limit.
+     */
+    public void setNodeLimit(long nodeLimit)
+    {
+        m_nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Set the maximal run time.
+     *
+     * @param timeLimit The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTimeLimit(long timeLimit)
+    {
+        m_timeLimit = timeLimit;
+    }
+
+    /**
+     * Turn the deadlock checks on or off. They are on by default; turning
+     * them off is mostly useful for measuring how much they save.
+     */
+    public void setDeadlockChecks(boolean deadlockChecks)
+    {
+        m_deadlockChecks = deadlockChecks;
+    }
+
+    /**
+     * Set the heuristic's bound type (LowerBound.BOUND_XXX). The default is
+     * LowerBound.BOUND_MATCHING.
+     */
+    public void setLowerBound(int boundType)
+    {
+        if (boundType != m_lowerBound.getBoundType())
+            m_lowerBound = new LowerBound(m_board, boundType);
+    }
+
+    /**
+     * Get the statistics of the last run.
+     */
+    public SolverStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
+    /**
+     * Solve the board from its current position.
+     *
+     * @return The list of moves that solve the board, or null if there is no
+     * solution, or the search was stopped by a limit before finding one. See
+     * getStatistics() to tell the two apart.
+     */
+    public List<Move> solve()
+    {
+        List<Move> solution = null;
+
+        m_statistics.start();
+        int bound = startRun(new SearchControl(m_nodeLimit, m_timeLimit));
+        if (bound != INFINITE_COST)
+        {
+            while (true)
+            {
+                m_transpositions.clear();
+                resetNextBound();
+                if (search(0, bound))
+                {
+                    solution = buildSolution(m_pathPushes, m_solutionLength);
+                    break;
+                }
+                if (m_aborted || m_nextBound == INFINITE_COST)
+                    break;
+                bound = m_nextBound;
+            }
+        }
+        m_statistics.sampleMemory();
+        m_transpositions.clear();
+
+        if (m_control.isLimitReached())
+            m_statistics.setLimitReached();
+        if (solution != null)
+            m_statistics.setSolution(m_solutionLength, solution.size());
+        m_statistics.stop();
+        return solution;
+    }
+
+
+    //
+    // Package operations, used by the parallel solver.
+    //
+
+    /**
+     * The recursive IDA* search.
+     *
+     * @param depth The number of pushes done so far.
+     * @param bound The cost bound for this iteration.
+     * @return true if a solution was found. The board is always left in the
+     * position it was in when this was called.
+     */
+    boolean search(int depth, int bound)
+    {
+        int pushStart = m_pushStackSize;
+        int result = visitNode(depth, bound);
+        if (result == NODE_SOLVED)
+            return true;
+        if (result == NODE_PRUNED)
+            return false;
+
+        int playerX = m_board.getPlayerX();
+        int playerY = m_board.getPlayerY();
+        boolean found = false;
+        for (int i = pushStart; i < m_pushStackSize && !found && !m_aborted;
+             i++)
+        {
+            int push = m_pushStack[i];
+            int boxCell = PushGenerator.getPushSquare(push);
+            int dir = PushGenerator.getPushDir(push);
+            int step = doPush(boxCell, dir);
+            if (!m_deadlockChecks || (step & Move.STEP_DEADLOCK) == 0)
+            {
+                recordPush(depth, push);
+                found = search(depth + 1, bound);
+            }
+            undoPush(step, boxCell, dir);
+            m_board.setPlayerPosition(playerX, playerY);
+        }
+        m_pushStackSize = pushStart;
+        return found;
+    }
+
+    /**
+     * Start a run with the given control, from the board's current position.
+     *
+     * @param control The run control.
+     * @return The cost bound of the first IDA* iteration, or INFINITE_COST
+     * if the position can't be searched at all.
+     */
+    int startRun(SearchControl control)
+    {
+        m_control = control;
+        m_aborted = false;
+        m_pushStackSize = 0;
+        m_heuristic = m_lowerBound.reset();
+        resetNextBound();
+        int playerCell = getPlayerIndex();
+        if (playerCell < 0 || !m_pushGenerator.isFloor(playerCell) ||
+            m_heuristic == LowerBound.UNSOLVABLE)
+        {
+            return INFINITE_COST;
+        }
+        return m_heuristic;
+    }
+
+    /**
+     * Get the board this solver plays on.
+     */
+    Board getBoard()
+    {
+        return m_board;
+    }
+
+    /**
+     * Reset the smallest cost that exceeded the bound, before a new IDA*
+     * iteration.
+     */
+    void resetNextBound()
+    {
+        m_nextBound = INFINITE_COST;
+    }
+
+    /**
+     * Get the smallest cost that exceeded the bound in the current iteration.
+     */
+    int getNextBound()
+    {
+        return m_nextBound;
+    }
+
+    /**
+     * Check whether the current run was stopped.
+     */
+    boolean isAborted()
+    {
+        return m_aborted;
+    }
+
+    /**
+     * Play the given pushes on the board, from the position the run started
+     * at, making them the start of the search path. The pushes must be legal.
+     *
+     * @param pushes The pushes, encoded as in the push stack.
+     * @param count The number of pushes to play.
+     */
+    void applyPushes(int[] pushes, int count)
+    {
+        if (m_pathSteps.length < count)
+            m_pathSteps = new int[count * 2];
+        for (int i = 0; i < count; i++)
+        {
+            int push = pushes[i];
+            recordPush(i, push);
+            m_pathSteps[i] = doPush(PushGenerator.getPushSquare(push),
+                    PushGenerator.getPushDir(push));
+        }
+    }
+
+    /**
+     * Undo the pushes played by applyPushes(), taking the board back to the
+     * position the run started at.
+     *
+     * @param count The number of pushes to undo.
+     * @param playerX The player X coordinate to restore.
+     * @param playerY The player Y coordinate to restore.
+     */
+    void undoPushes(int count, int playerX, int playerY)
+    {
+        for (int i = count - 1; i >= 0; i--)
+        {
+            // Right after a push, the player stands where the box was.
+            int push = m_pathPushes[i];
+            int boxCell = PushGenerator.getPushSquare(push);
+            setPlayerIndex(boxCell);
+            undoPush(m_pathSteps[i], boxCell, PushGenerator.getPushDir(push));
+        }
+        m_board.setPlayerPosition(playerX, playerY);
+    }
+
+    /**
+     * Expand a single node, without searching bellow it: check it against
+     * the bound and the state table, and list its pushes.
+     *
+     * @param depth The number of pushes done so far.
+     * @param bound The cost bound for this iteration.
+     * @param pushes The array to copy the node's pushes into. It is
+     * replaced with a bigger array when needed.
+     * @return The number of pushes, or NODE_PRUNED or NODE_SOLVED.
+     */
+    int expandNode(int depth, int bound, int[][] pushes)
+    {
+        int pushStart = m_pushStackSize;
+        int result = visitNode(depth, bound);
+        if (result < 0)
+            return result;
+        if (pushes[0].length < result)
+            pushes[0] = new int[result];
+
+        int playerX = m_board.getPlayerX();
+        int playerY = m_board.getPlayerY();
+        int count = 0;
+        for (int i = pushStart; i < pushStart + result; i++)
+        {
+            int push = m_pushStack[i];
+            int boxCell = PushGenerator.getPushSquare(push);
+            int dir = PushGenerator.getPushDir(push);
+            int step = doPush(boxCell, dir);
+            if (!m_deadlockChecks || (step & Move.STEP_DEADLOCK) == 0)
+                pushes[0][count++] = push;
+            undoPush(step, boxCell, dir);
+        }
+        m_board.setPlayerPosition(playerX, playerY);
+        m_pushStackSize = pushStart;
+        return count;
+    }
+
+    /**
+     * Get the pushes on the current search path. After a successful search,
+     * the first getSolutionLength() entries are the solution.
+     */
+    int[] getPathPushes()
+    {
+        return m_pathPushes;
+    }
+
+    /**
+     * Get the number of pushes in the solution found.
+     */
+    int getSolutionLength()
+    {
+        return m_solutionLength;
+    }
+
+    /**
+     * Build the list of moves for the given pushes, from the board's
+     * current position (see PushGenerator.expandPushes()).
+     *
+     * @param pushes The pushes, encoded as in the push stack.
+     * @param pushCount The number of pushes in the solution.
+     * @return The solution moves.
+     */
+    List<Move> buildSolution(int[] pushes, int pushCount)
+    {
+        return m_pushGenerator.expandPushes(pushes, pushCount);
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Visit a search node: count it, check it against the bound, the goal
+     * and the state table, and push its pushes on the push stack.
+     *
+     * @return The number of pushes added to the push stack, or NODE_PRUNED
+     * or NODE_SOLVED (in which case nothing was added).
+     */
+    private int visitNode(int depth, int bound)
+    {
+        m_statistics.countNode();
+        if ((m_statistics.getNodeCount() & LIMIT_CHECK_MASK) == 0)
+        {
+            m_statistics.sampleMemory();
+            if (m_control.reportNodes(LIMIT_CHECK_MASK + 1))
+                m_aborted = true;
+        }
+        if (m_aborted)
+            return NODE_PRUNED;
+
+        if (m_heuristic == LowerBound.UNSOLVABLE)
+            return NODE_PRUNED;
+        int cost = depth + m_heuristic;
+        if (cost > bound)
+        {
+            if (cost < m_nextBound)
+                m_nextBound = cost;
+            return NODE_PRUNED;
+        }
+        if (m_board.isSolved())
+        {
+            m_solutionLength = depth;
+            return NODE_SOLVED;
+        }
+
+        int pushStart = m_pushStackSize;
+        int normalizedPlayer = findPushes();
+        long stateKey = m_board.getBoxZobristKey() ^
+            m_board.getPlayerZobristKey(m_board.getSquareX(normalizedPlayer),
+                    m_board.getSquareY(normalizedPlayer));
+        if (!m_transpositions.visit(stateKey, depth) ||
+            (m_deadlockChecks && m_board.isCorralDeadlock()))
+        {
+            m_pushStackSize = pushStart;
+            return NODE_PRUNED;
+        }
+        return m_pushStackSize - pushStart;
+    }
+
+    /**
+     * Find the area the player can reach, and add all the pushes that can be
+     * done from it to the push stack.
+     *
+     * @return The normalized player position - the smallest square index in
+     * the reachable area.
+     */
+    private int findPushes()
+    {
+        int pushCount = m_pushGenerator.findPushes();
+        for (int n = 0; n < pushCount; n++)
+            addPush(m_pushGenerator.getPush(n));
+        return m_pushGenerator.getNormalizedPlayer();
+    }
+
+    /**
+     * Push a box, both on the board and in the heuristic.
+     *
+     * @param boxCell The square of the box to push.
+     * @param dir The direction to push it to.
+     * @return The board step code of the push, for undoing it later.
+     */
+    private int doPush(int boxCell, int dir)
+    {
+        int step = m_pushGenerator.doPush(PushGenerator.makePush(boxCell, dir));
+        m_heuristic = m_lowerBound.moveBox(boxCell,
+                boxCell + m_dirOffsets[dir]);
+        return step;
+    }
+
+    /**
+     * Undo a push done by doPush().
+     */
+    private void undoPush(int step, int boxCell, int dir)
+    {
+        m_pushGenerator.undoPush(step);
+        m_heuristic = m_lowerBound.moveBox(boxCell + m_dirOffsets[dir],
+                boxCell);
+    }
+
+    /**
+     * Record a push on the current search path.
+     */
+    private void recordPush(int depth, int push)
+    {
+        if (depth == m_pathPushes.length)
+            m_pathPushes = IntArrays.grow(m_pathPushes, depth * 2);
+        m_pathPushes[depth] = push;
+    }
+
+    /**
+     * Add a candidate push to the push stack.
+     */
+    private void addPush(int push)
+    {
+        if (m_pushStackSize == m_pushStack.length)
+            m_pushStack = IntArrays.grow(m_pushStack, m_pushStackSize * 2);
+        m_pushStack[m_pushStackSize++] = push;
+    }
+
+    /**
+     * Get the player's square index.
+     */
+    private int getPlayerIndex()
+    {
+        return m_board.getSquareIndex(m_board.getPlayerX(),
+                m_board.getPlayerY());
+    }
+
+    /**
+     * Put the player on the square with the given index.
+     */
+    private void setPlayerIndex(int cell)
+    {
+        m_board.setPlayerPosition(m_board.getSquareX(cell),
+                m_board.getSquareY(cell));
+    }
+}
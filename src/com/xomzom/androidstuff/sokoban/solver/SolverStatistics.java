@@ -0,0 +1,233 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+/**
+ * Statistics collected during a single solver run: how many search nodes
+ * were expanded, how long it took, and how much heap was in use at peak.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class SolverStatistics
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The number of search nodes expanded.
+     */
+    private long m_nodeCount;
+
+    /**
+     * The time the run started, in milliseconds.
+     */
+    private long m_startTime;
+
+    /**
+     * The run's elapsed time, in milliseconds.
+     */
+    private long m_elapsedMillis;
+
+    /**
+     * The highest heap usage sampled during the run, in bytes.
+     */
+    private long m_peakMemory;
+
+    /**
+     * The number of pushes in the solution, or -1 if no solution was found.
+     */
+    private int m_solutionPushes = -1;
+
+    /**
+     * The number of moves in the solution, or -1 if no solution was found.
+     */
+    private int m_solutionMoves = -1;
+
+    /**
+     * A flag to indicate that the run was stopped by the node or time limit.
+     */
+    private boolean m_limitReached;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Get the number of search nodes expanded.
+     */
+    public long getNodeCount()
+    {
+        return m_nodeCount;
+    }
+
+    /**
+     * Get the run's elapsed time, in milliseconds.
+     */
+    public long getElapsedMillis()
+    {
+        return m_elapsedMillis;
+    }
+
+    /**
+     * Get the search speed, in nodes per second.
+     */
+    public long getNodesPerSecond()
+    {
+        if (m_elapsedMillis == 0)
+            return m_nodeCount * 1000;
+        return m_nodeCount * 1000 / m_elapsedMillis;
+    }
+
+    /**
+     * Get the highest heap usage sampled during the run, in bytes. This is
+     * the usage of the whole JVM, not just the solver.
+     */
+    public long getPeakMemory()
+    {
+        return m_peakMemory;
+    }
+
+    /**
+     * Get the number of pushes in the solution, or -1 if no solution was
+     * found.
+     */
+    public int getSolutionPushes()
+    {
+        return m_solutionPushes;
+    }
+
+    /**
+     * Get the number of moves in the solution, or -1 if no solution was
+     * found.
+     */
+    public int getSolutionMoves()
+    {
+        return m_solutionMoves;
+    }
+
+    /**
+     * Check whether the run was stopped by the node or time limit (as
+     * opposed to proving there is no solution).
+     */
+    public boolean isLimitReached()
+    {
+        return m_limitReached;
+    }
+
+    /**
+     * Get a one-line summary of the statistics.
+     */
+    public String toString()
+    {
+        return "nodes=" + m_nodeCount +
+            " nodes/sec=" + getNodesPerSecond() +
+            " time=" + m_elapsedMillis + "ms" +
+            " peakMemory=" + (m_peakMemory / 1024) + "KB" +
+            " pushes=" + m_solutionPushes +
+            " moves=" + m_solutionMoves +
+            (m_limitReached ? " (limit reached)" : "");
+    }
+
+
+    //
+    // Package operations, used by the solver to fill in the statistics.
+    //
+
+    /**
+     * Mark the start of a run, resetting all counters.
+     */
+    void start()
+    {
+        m_nodeCount = 0;
+        m_elapsedMillis = 0;
+        m_peakMemory = 0;
+        m_solutionPushes = -1;
+        m_solutionMoves = -1;
+        m_limitReached = false;
+        m_startTime = System.currentTimeMillis();
+        sampleMemory();
+    }
+
+    /**
+     * Mark the end of a run.
+     */
+    void stop()
+    {
+        sampleMemory();
+        m_elapsedMillis = System.currentTimeMillis() - m_startTime;
+    }
+
+    /**
+     * Get the time elapsed since the run started, in milliseconds.
+     */
+    long getRunningMillis()
+    {
+        return System.currentTimeMillis() - m_startTime;
+    }
+
+    /**
+     * Count one more expanded node.
+     */
+    void countNode()
+    {
+        m_nodeCount++;
+    }
+
+    /**
+     * Sample the current heap usage, updating the peak if needed.
+     */
+    void sampleMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        if (used > m_peakMemory)
+            m_peakMemory = used;
+    }
+
+    /**
+     * Add the work done by a helper solver (for example, one of the parallel
+     * solver's workers) to these statistics.
+     */
+    void addWorker(SolverStatistics worker)
+    {
+        m_nodeCount += worker.m_nodeCount;
+        if (worker.m_peakMemory > m_peakMemory)
+            m_peakMemory = worker.m_peakMemory;
+    }
+
+    /**
+     * Record the size of the solution found.
+     */
+    void setSolution(int pushes, int moves)
+    {
+        m_solutionPushes = pushes;
+        m_solutionMoves = moves;
+    }
+
+    /**
+     * Record that the run was stopped by the node or time limit.
+     */
+    void setLimitReached()
+    {
+        m_limitReached = true;
+    }
+}
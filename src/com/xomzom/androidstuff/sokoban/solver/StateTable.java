@@ -0,0 +1,46 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+/**
+ * A table of search states seen by the solver, keyed on 64 bit position
+ * keys, remembering the smallest search depth each state was reached at.
+ *
+ * @author Dedi Hirschfeld
+ */
+interface StateTable
+{
+    /**
+     * Record a visit to a state, and check whether it should be searched.
+     * A state should be searched unless it was already visited at the same
+     * or a smaller depth, since then the earlier visit covers everything this
+     * one could find.
+     *
+     * @param key The state key.
+     * @param depth The depth the state is visited at.
+     * @return true if the state should be searched.
+     */
+    boolean visit(long key, int depth);
+
+    /**
+     * Forget all the visited states.
+     */
+    void clear();
+}
@@ -0,0 +1,207 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+/**
+ * The solver's transposition table: an open addressing hash table mapping
+ * 64 bit position keys to int values, stored in primitive arrays so adding
+ * an entry doesn't allocate anything (until the table has to grow). This
+ * table is for a single thread - see ConcurrentTranspositionTable for a
+ * table that can be shared.
+ *
+ * @author Dedi Hirschfeld
+ */
+class TranspositionTable implements StateTable
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The value returned by get() for keys that are not in the table.
+     */
+    final static int NOT_FOUND = -1;
+
+    /**
+     * The key used to mark empty slots. A real key with this value is
+     * replaced with EMPTY_KEY_REPLACEMENT.
+     */
+    private final static long EMPTY_KEY = 0;
+
+    /**
+     * The key used in place of a real key that equals EMPTY_KEY.
+     */
+    private final static long EMPTY_KEY_REPLACEMENT = 1;
+
+    /**
+     * The initial table capacity. Must be a power of two.
+     */
+    private final static int INITIAL_CAPACITY = 1 << 12;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The keys of the table slots.
+     */
+    private long[] m_keys;
+
+    /**
+     * The values of the table slots.
+     */
+    private int[] m_values;
+
+    /**
+     * The number of used slots.
+     */
+    private int m_size;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create an empty table.
+     */
+    TranspositionTable()
+    {
+        m_keys = new long[INITIAL_CAPACITY];
+        m_values = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Get the value stored for the given key.
+     *
+     * @return The value, or NOT_FOUND if the key is not in the table.
+     */
+    int get(long key)
+    {
+        key = fixKey(key);
+        int mask = m_keys.length - 1;
+        for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask)
+        {
+            long slotKey = m_keys[slot];
+            if (slotKey == key)
+                return m_values[slot];
+            if (slotKey == EMPTY_KEY)
+                return NOT_FOUND;
+        }
+    }
+
+    /**
+     * Store a value for the given key, replacing any previous value.
+     */
+    void put(long key, int value)
+    {
+        if (2 * (m_size + 1) > m_keys.length)
+            resize(m_keys.length * 2);
+        insert(fixKey(key), value);
+    }
+
+    /**
+     * Record a visit to a state, with the state's depth as its value.
+     *
+     * @see StateTable#visit(long, int)
+     */
+    public boolean visit(long key, int depth)
+    {
+        int seenDepth = get(key);
+        if (seenDepth != NOT_FOUND && seenDepth <= depth)
+            return false;
+        put(key, depth);
+        return true;
+    }
+
+    /**
+     * Get the number of entries in the table.
+     */
+    int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Remove all the entries from the table. The table keeps its capacity.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < m_keys.length; i++)
+            m_keys[i] = EMPTY_KEY;
+        m_size = 0;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Insert a value for an already fixed key, assuming there is room.
+     */
+    private void insert(long key, int value)
+    {
+        int mask = m_keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (m_keys[slot] != EMPTY_KEY && m_keys[slot] != key)
+            slot = (slot + 1) & mask;
+        if (m_keys[slot] == EMPTY_KEY)
+        {
+            m_keys[slot] = key;
+            m_size++;
+        }
+        m_values[slot] = value;
+    }
+
+    /**
+     * Grow the table to the given capacity, re-inserting all entries.
+     */
+    private void resize(int newCapacity)
+    {
+        long[] oldKeys = m_keys;
+        int[] oldValues = m_values;
+        m_keys = new long[newCapacity];
+        m_values = new int[newCapacity];
+        m_size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY_KEY)
+                insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Get the home slot of a key. The Zobrist keys are already well mixed,
+     * so the high bits are simply folded into the low ones.
+     */
+    private static int slotOf(long key, int mask)
+    {
+        return (int)(key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Replace a key that collides with the empty slot marker.
+     */
+    private static long fixKey(long key)
+    {
+        return (key == EMPTY_KEY ? EMPTY_KEY_REPLACEMENT : key);
+    }
+}
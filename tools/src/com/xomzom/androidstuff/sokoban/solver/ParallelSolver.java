@@ -0,0 +1,407 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+
+/**
+ * A multi-threaded version of the solver, for batch runs on big machines.
+ * It runs the same IDA* push search as Solver, but splits the top levels of
+ * each iteration's search tree into fork-join tasks, which the pool's
+ * threads steal from each other. Every pool thread has its own worker
+ * Solver, playing on its own copy of the board, and all the workers share
+ * one lock-free transposition table.
+ *
+ * This lives with the headless tools rather than in the game itself, since
+ * the fork-join framework is not available on the android versions the game
+ * supports.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class ParallelSolver
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The default log2 of the transposition table size.
+     */
+    private final static int DEFAULT_TABLE_BITS = 20;
+
+    /**
+     * The default number of search tree levels split into separate tasks.
+     */
+    private final static int DEFAULT_SPLIT_DEPTH = 4;
+
+    //
+    // Members.
+    //
+
+    /**
+     * The board to solve.
+     */
+    private final Board m_board;
+
+    /**
+     * The number of threads to use.
+     */
+    private final int m_threadCount;
+
+    /**
+     * The transposition table, shared by all the workers.
+     */
+    private final ConcurrentTranspositionTable m_transpositions;
+
+    /**
+     * The number of search tree levels split into separate tasks. Bellow
+     * that, each task searches its subtree sequentially.
+     */
+    private int m_splitDepth = DEFAULT_SPLIT_DEPTH;
+
+    /**
+     * Whether deadlocked pushes and positions are pruned.
+     */
+    private boolean m_deadlockChecks = true;
+
+    /**
+     * The heuristic's bound type (LowerBound.BOUND_XXX).
+     */
+    private int m_boundType = LowerBound.BOUND_MATCHING;
+
+    /**
+     * The maximal number of nodes to expand, or 0 for no limit.
+     */
+    private long m_nodeLimit;
+
+    /**
+     * The maximal run time in milliseconds, or 0 for no limit.
+     */
+    private long m_timeLimit;
+
+    /**
+     * The statistics of the last run.
+     */
+    private final SolverStatistics m_statistics = new SolverStatistics();
+
+    /**
+     * The control of the current run.
+     */
+    private SearchControl m_control;
+
+    /**
+     * The workers of the current run, one per pool thread.
+     */
+    private final List<Solver> m_workers = new ArrayList<Solver>();
+
+    /**
+     * Each pool thread's worker, for the current run.
+     */
+    private ThreadLocal<Solver> m_threadWorker;
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Create a parallel solver for the given board, with a default sized
+     * transposition table.
+     *
+     * @param board The board to solve.
+     * @param threadCount The number of threads to use.
+     */
+    public ParallelSolver(Board board, int threadCount)
+    {
+        this(board, threadCount, DEFAULT_TABLE_BITS);
+    }
+
+    /**
+     * Create a parallel solver for the given board.
+     *
+     * @param board The board to solve.
+     * @param threadCount The number of threads to use.
+     * @param tableBits The log2 of the transposition table size.
+     */
+    public ParallelSolver(Board board, int threadCount, int tableBits)
+    {
+        m_board = board;
+        m_threadCount = threadCount;
+        m_transpositions = new ConcurrentTranspositionTable(tableBits);
+    }
+
+    /**
+     * Set the number of search tree levels split into separate tasks.
+     */
+    public void setSplitDepth(int splitDepth)
+    {
+        m_splitDepth = splitDepth;
+    }
+
+    /**
+     * Turn the deadlock checks on or off. They are on by default.
+     */
+    public void setDeadlockChecks(boolean deadlockChecks)
+    {
+        m_deadlockChecks = deadlockChecks;
+    }
+
+    /**
+     * Set the heuristic's bound type (LowerBound.BOUND_XXX). The default is
+     * LowerBound.BOUND_MATCHING.
+     */
+    public void setLowerBound(int boundType)
+    {
+        m_boundType = boundType;
+    }
+
+    /**
+     * Set the maximal number of nodes to expand, by all threads together.
+     *
+     * @param nodeLimit The node limit, or 0 for no limit.
+     */
+    public void setNodeLimit(long nodeLimit)
+    {
+        m_nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Set the maximal run time.
+     *
+     * @param timeLimit The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTimeLimit(long timeLimit)
+    {
+        m_timeLimit = timeLimit;
+    }
+
+    /**
+     * Get the statistics of the last run, summed over all threads.
+     */
+    public SolverStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
+    /**
+     * Solve the board from its current position. The board itself is only
+     * used to build the solution; the search runs on copies of it.
+     *
+     * @return The list of moves that solve the board, or null if there is no
+     * solution, or the search was stopped by a limit before finding one.
+     */
+    public List<Move> solve()
+    {
+        List<Move> solution = null;
+
+        m_statistics.start();
+        m_control = new SearchControl(m_nodeLimit, m_timeLimit);
+        m_workers.clear();
+        m_threadWorker = new ThreadLocal<Solver>();
+
+        // The root solver works on the real board. It only provides the
+        // initial bound, and builds the solution moves at the end.
+        Solver rootSolver = new Solver(m_board, m_transpositions);
+        rootSolver.setLowerBound(m_boundType);
+        int bound = rootSolver.startRun(m_control);
+        ForkJoinPool pool = new ForkJoinPool(m_threadCount);
+        try
+        {
+            while (bound != Solver.INFINITE_COST)
+            {
+                m_transpositions.clear();
+                synchronized (m_workers)
+                {
+                    for (Solver worker : m_workers)
+                        worker.resetNextBound();
+                }
+                int[] pushes = pool.invoke(new SearchTask(new int[0], bound));
+                if (pushes != null)
+                {
+                    solution = rootSolver.buildSolution(pushes, pushes.length);
+                    m_statistics.setSolution(pushes.length, solution.size());
+                    break;
+                }
+                if (m_control.isStopped())
+                    break;
+                bound = getNextBound();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        m_transpositions.clear();
+
+        for (Solver worker : m_workers)
+            m_statistics.addWorker(worker.getStatistics());
+        if (m_control.isLimitReached())
+            m_statistics.setLimitReached();
+        m_statistics.stop();
+        return solution;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Get the current thread's worker, creating it if needed.
+     */
+    private Solver getWorker()
+    {
+        Solver worker = m_threadWorker.get();
+        if (worker == null)
+        {
+            worker = new Solver(new Board(m_board), m_transpositions);
+            worker.setDeadlockChecks(m_deadlockChecks);
+            worker.setLowerBound(m_boundType);
+            worker.startRun(m_control);
+            m_threadWorker.set(worker);
+            synchronized (m_workers)
+            {
+                m_workers.add(worker);
+            }
+        }
+        return worker;
+    }
+
+    /**
+     * Get the smallest cost that exceeded the bound in any of the workers.
+     */
+    private int getNextBound()
+    {
+        int nextBound = Solver.INFINITE_COST;
+        synchronized (m_workers)
+        {
+            for (Solver worker : m_workers)
+                nextBound = Math.min(nextBound, worker.getNextBound());
+        }
+        return nextBound;
+    }
+
+    /**
+     * A search task: search the subtree bellow a given sequence of pushes
+     * from the initial position.
+     */
+    private class SearchTask extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The pushes leading to the subtree's root.
+         */
+        private final int[] m_prefix;
+
+        /**
+         * The cost bound of the current iteration.
+         */
+        private final int m_bound;
+
+        /**
+         * Create a search task.
+         */
+        SearchTask(int[] prefix, int bound)
+        {
+            m_prefix = prefix;
+            m_bound = bound;
+        }
+
+        /**
+         * Search the subtree.
+         *
+         * @return The pushes of the solution found, or null.
+         */
+        @Override
+        protected int[] compute()
+        {
+            if (m_control.isStopped())
+                return null;
+
+            Solver worker = getWorker();
+            Board board = worker.getBoard();
+            int playerX = board.getPlayerX();
+            int playerY = board.getPlayerY();
+            int depth = m_prefix.length;
+            int[][] childPushes = new int[][] { new int[16] };
+            int childCount;
+
+            // Each task plays its prefix on the worker's board, and takes
+            // the board back to the initial position before forking, since
+            // the children may run on this same thread (and worker).
+            worker.applyPushes(m_prefix, depth);
+            try
+            {
+                if (depth >= m_splitDepth)
+                {
+                    if (!worker.search(depth, m_bound))
+                        return null;
+                    return solutionFound(worker.getPathPushes(),
+                            worker.getSolutionLength());
+                }
+                childCount = worker.expandNode(depth, m_bound, childPushes);
+            }
+            finally
+            {
+                worker.undoPushes(depth, playerX, playerY);
+            }
+
+            if (childCount == Solver.NODE_SOLVED)
+                return solutionFound(m_prefix, depth);
+            if (childCount == Solver.NODE_PRUNED)
+                return null;
+
+            List<SearchTask> children = new ArrayList<SearchTask>(childCount);
+            for (int i = 0; i < childCount; i++)
+            {
+                int[] childPrefix = new int[depth + 1];
+                System.arraycopy(m_prefix, 0, childPrefix, 0, depth);
+                childPrefix[depth] = childPushes[0][i];
+                children.add(new SearchTask(childPrefix, m_bound));
+            }
+            invokeAll(children);
+            for (SearchTask child : children)
+            {
+                int[] solution = child.join();
+                if (solution != null)
+                    return solution;
+            }
+            return null;
+        }
+
+        /**
+         * Stop all the other tasks, and return a copy of the solution pushes.
+         */
+        private int[] solutionFound(int[] pushes, int pushCount)
+        {
+            m_control.stop();
+            int[] solution = new int[pushCount];
+            System.arraycopy(pushes, 0, solution, 0, pushCount);
+            return solution;
+        }
+    }
+}
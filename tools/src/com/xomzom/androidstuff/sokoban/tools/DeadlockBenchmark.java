@@ -0,0 +1,130 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.solver.Solver;
+import com.xomzom.androidstuff.sokoban.solver.SolverStatistics;
+
+/**
+ * A benchmark for the deadlock checks: solve a range of levels with the
+ * checks off and on, under the same node limit, and report how many levels
+ * got solved and how many nodes it took. For levels solved both ways, the
+ * node count reduction is reported as well.
+ *
+ * Usage: DeadlockBenchmark levelDir [firstLevel [lastLevel [nodeLimit]]]
+ *
+ * @author Dedi Hirschfeld
+ */
+public class DeadlockBenchmark
+{
+    /**
+     * Run the benchmark.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: DeadlockBenchmark levelDir " +
+                    "[firstLevel [lastLevel [nodeLimit]]]");
+            System.exit(1);
+        }
+        File levelDir = new File(args[0]);
+        int firstLevel = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+        int lastLevel = (args.length > 2 ? Integer.parseInt(args[2]) : 355);
+        long nodeLimit = (args.length > 3 ? Long.parseLong(args[3]) : 1000000);
+
+        int solvedWithout = 0;
+        int solvedWith = 0;
+        long nodesWithout = 0;
+        long nodesWith = 0;
+        long commonNodesWithout = 0;
+        long commonNodesWith = 0;
+        long millisWithout = 0;
+        long millisWith = 0;
+        for (int level = firstLevel; level <= lastLevel; level++)
+        {
+            Board board = LevelFiles.readLevel(levelDir, level);
+            SolverStatistics without = solve(board, false, nodeLimit);
+            SolverStatistics with = solve(board, true, nodeLimit);
+            System.out.println("level " + level +
+                    ": without " + describe(without) +
+                    ", with " + describe(with));
+
+            nodesWithout += without.getNodeCount();
+            nodesWith += with.getNodeCount();
+            millisWithout += without.getElapsedMillis();
+            millisWith += with.getElapsedMillis();
+            boolean isSolvedWithout = without.getSolutionPushes() >= 0;
+            boolean isSolvedWith = with.getSolutionPushes() >= 0;
+            if (isSolvedWithout)
+                solvedWithout++;
+            if (isSolvedWith)
+                solvedWith++;
+            if (isSolvedWithout && isSolvedWith)
+            {
+                commonNodesWithout += without.getNodeCount();
+                commonNodesWith += with.getNodeCount();
+            }
+        }
+
+        int levelCount = lastLevel - firstLevel + 1;
+        System.out.println("without deadlock checks: solved " + solvedWithout +
+                "/" + levelCount + " nodes=" + nodesWithout +
+                " time=" + millisWithout + "ms");
+        System.out.println("with deadlock checks:    solved " + solvedWith +
+                "/" + levelCount + " nodes=" + nodesWith +
+                " time=" + millisWith + "ms");
+        if (commonNodesWith > 0)
+        {
+            System.out.println("levels solved both ways: nodes " +
+                    commonNodesWithout + " -> " + commonNodesWith + " (" +
+                    String.format("%.2f",
+                            (double)commonNodesWithout / commonNodesWith) +
+                    "x fewer)");
+        }
+    }
+
+    /**
+     * Solve a board with the deadlock checks on or off.
+     */
+    private static SolverStatistics solve(Board board, boolean deadlockChecks,
+            long nodeLimit)
+    {
+        Solver solver = new Solver(board);
+        solver.setDeadlockChecks(deadlockChecks);
+        solver.setNodeLimit(nodeLimit);
+        solver.solve();
+        return solver.getStatistics();
+    }
+
+    /**
+     * Describe the result of a run.
+     */
+    private static String describe(SolverStatistics stats)
+    {
+        if (stats.getSolutionPushes() < 0)
+            return "unsolved (" + stats.getNodeCount() + " nodes)";
+        return "solved in " + stats.getNodeCount() + " nodes";
+    }
+}
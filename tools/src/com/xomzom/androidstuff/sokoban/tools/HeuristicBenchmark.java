@@ -0,0 +1,141 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.solver.LowerBound;
+import com.xomzom.androidstuff.sokoban.solver.Solver;
+import com.xomzom.androidstuff.sokoban.solver.SolverStatistics;
+
+/**
+ * A benchmark for the solver's lower bounds: solve a range of levels with
+ * the nearest target bound and with the matching bound, under the same
+ * node limit, and report how many levels got solved, and how many nodes and
+ * how much time it took. For levels solved both ways, the node count and
+ * time of the two bounds are compared as well.
+ *
+ * Usage: HeuristicBenchmark levelDir [firstLevel [lastLevel [nodeLimit]]]
+ *
+ * @author Dedi Hirschfeld
+ */
+public class HeuristicBenchmark
+{
+    /**
+     * Run the benchmark.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: HeuristicBenchmark levelDir " +
+                    "[firstLevel [lastLevel [nodeLimit]]]");
+            System.exit(1);
+        }
+        File levelDir = new File(args[0]);
+        int firstLevel = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+        int lastLevel = (args.length > 2 ? Integer.parseInt(args[2]) : 355);
+        long nodeLimit = (args.length > 3 ? Long.parseLong(args[3]) : 1000000);
+
+        int solvedNearest = 0;
+        int solvedMatching = 0;
+        long nodesNearest = 0;
+        long nodesMatching = 0;
+        long millisNearest = 0;
+        long millisMatching = 0;
+        long commonNodesNearest = 0;
+        long commonNodesMatching = 0;
+        long commonMillisNearest = 0;
+        long commonMillisMatching = 0;
+        for (int level = firstLevel; level <= lastLevel; level++)
+        {
+            Board board = LevelFiles.readLevel(levelDir, level);
+            SolverStatistics nearest =
+                solve(board, LowerBound.BOUND_NEAREST_TARGET, nodeLimit);
+            SolverStatistics matching =
+                solve(board, LowerBound.BOUND_MATCHING, nodeLimit);
+            System.out.println("level " + level +
+                    ": nearest target " + describe(nearest) +
+                    ", matching " + describe(matching));
+
+            nodesNearest += nearest.getNodeCount();
+            nodesMatching += matching.getNodeCount();
+            millisNearest += nearest.getElapsedMillis();
+            millisMatching += matching.getElapsedMillis();
+            boolean isSolvedNearest = nearest.getSolutionPushes() >= 0;
+            boolean isSolvedMatching = matching.getSolutionPushes() >= 0;
+            if (isSolvedNearest)
+                solvedNearest++;
+            if (isSolvedMatching)
+                solvedMatching++;
+            if (isSolvedNearest && isSolvedMatching)
+            {
+                commonNodesNearest += nearest.getNodeCount();
+                commonNodesMatching += matching.getNodeCount();
+                commonMillisNearest += nearest.getElapsedMillis();
+                commonMillisMatching += matching.getElapsedMillis();
+            }
+        }
+
+        int levelCount = lastLevel - firstLevel + 1;
+        System.out.println("nearest target bound: solved " + solvedNearest +
+                "/" + levelCount + " nodes=" + nodesNearest +
+                " time=" + millisNearest + "ms");
+        System.out.println("matching bound:       solved " + solvedMatching +
+                "/" + levelCount + " nodes=" + nodesMatching +
+                " time=" + millisMatching + "ms");
+        if (commonNodesMatching > 0)
+        {
+            System.out.println("levels solved both ways: nodes " +
+                    commonNodesNearest + " -> " + commonNodesMatching +
+                    ", time " + commonMillisNearest + "ms -> " +
+                    commonMillisMatching + "ms");
+        }
+    }
+
+    /**
+     * Solve a board with the given bound type.
+     */
+    private static SolverStatistics solve(Board board, int boundType,
+            long nodeLimit)
+    {
+        Solver solver = new Solver(board);
+        solver.setLowerBound(boundType);
+        solver.setNodeLimit(nodeLimit);
+        solver.solve();
+        return solver.getStatistics();
+    }
+
+    /**
+     * Describe the result of a run.
+     */
+    private static String describe(SolverStatistics stats)
+    {
+        if (stats.getSolutionPushes() < 0)
+        {
+            return "unsolved (" + stats.getNodeCount() + " nodes, " +
+                stats.getElapsedMillis() + "ms)";
+        }
+        return "solved in " + stats.getNodeCount() + " nodes, " +
+            stats.getElapsedMillis() + "ms";
+    }
+}
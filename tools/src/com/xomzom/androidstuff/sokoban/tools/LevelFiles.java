@@ -0,0 +1,93 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.xomzom.androidstuff.sokoban.Board;
+
+/**
+ * Helpers for reading the bundled level files from a directory, for the
+ * headless tools.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelFiles
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The prefix for level files.
+     */
+    private final static String LEVEL_FILE_PREFIX = "level-";
+
+    /**
+     * The postfix for level files.
+     */
+    private final static String LEVEL_FILE_POSTFIX = ".txt";
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Get the file of the given level in the given level directory.
+     */
+    public static File getLevelFile(File levelDir, int level)
+    {
+        return new File(levelDir,
+                LEVEL_FILE_PREFIX + level + LEVEL_FILE_POSTFIX);
+    }
+
+    /**
+     * Read the given level from the given level directory.
+     *
+     * @throws IOException if something went wrong in reading the board.
+     */
+    public static Board readLevel(File levelDir, int level) throws IOException
+    {
+        return readBoard(getLevelFile(levelDir, level));
+    }
+
+    /**
+     * Read a board from a level file.
+     *
+     * @throws IOException if something went wrong in reading the board.
+     */
+    public static Board readBoard(File file) throws IOException
+    {
+        Board board = new Board();
+        InputStream inStream = new FileInputStream(file);
+        try
+        {
+            board.read(inStream);
+        }
+        finally
+        {
+            inStream.close();
+        }
+        return board;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.LevelPack;
+
+/**
+ * Builds a level pack file (see LevelPack for the format) from level rows.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class LevelPackWriter
+{
+    //
+    // Members.
+    //
+
+    /**
+     * The encoded level records, in order.
+     */
+    private final List<byte[]> m_records = new ArrayList<byte[]>();
+
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Add a level to the pack.
+     *
+     * @param title The level title, or null for none.
+     * @param rows The level rows, in level file characters. Characters that
+     * aren't level file characters are stored as floor.
+     */
+    public void addLevel(String title, List<String> rows) throws IOException
+    {
+        int width = 0;
+        for (String row : rows)
+            width = Math.max(width, row.length());
+        byte[] titleBytes = (title == null ? "" : title).getBytes("UTF-8");
+        if (width > 0xffff || rows.size() > 0xffff ||
+            titleBytes.length > 0xffff)
+            throw new IOException("Level too large for a level pack");
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeShort(record, width);
+        writeShort(record, rows.size());
+        writeShort(record, titleBytes.length);
+        record.write(titleBytes);
+        for (String row : rows)
+            encodeRow(record, row);
+        m_records.add(record.toByteArray());
+    }
+
+    /**
+     * Get the number of levels added so far.
+     */
+    public int getLevelCount()
+    {
+        return m_records.size();
+    }
+
+    /**
+     * Write the pack to a file.
+     *
+     * @return The pack size, in bytes.
+     */
+    public long write(File file) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            return write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the pack to a stream.
+     *
+     * @return The pack size, in bytes.
+     */
+    public long write(OutputStream out) throws IOException
+    {
+        int count = m_records.size();
+        long offset = LevelPack.HEADER_SIZE + 4L * (count + 1);
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        writeInt(head, LevelPack.MAGIC);
+        writeShort(head, LevelPack.VERSION);
+        writeShort(head, 0);
+        writeInt(head, count);
+        for (byte[] record : m_records)
+        {
+            writeInt(head, (int)offset);
+            offset += record.length;
+        }
+        if (offset > Integer.MAX_VALUE)
+            throw new IOException("Level pack too large");
+        writeInt(head, (int)offset);
+
+        head.writeTo(out);
+        for (byte[] record : m_records)
+            out.write(record);
+        return offset;
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Run-length encode a single row.
+     */
+    private static void encodeRow(OutputStream out, String row)
+        throws IOException
+    {
+        int col = 0;
+        while (col < row.length())
+        {
+            int symbol = getSymbol(row.charAt(col));
+            int runLength = 1;
+            while (col + runLength < row.length() &&
+                   runLength < LevelPack.MAX_RUN &&
+                   getSymbol(row.charAt(col + runLength)) == symbol)
+                runLength++;
+            out.write(((runLength - 1) << 3) | symbol);
+            col += runLength;
+        }
+        out.write(LevelPack.END_OF_ROW);
+    }
+
+    /**
+     * Get the run symbol of a level file character.
+     */
+    private static int getSymbol(char squareChar)
+    {
+        int symbol = LevelPack.SYMBOL_CHARS.indexOf(squareChar);
+        return symbol < 0 ? 0 : symbol;
+    }
+
+    /**
+     * Write a little endian 16 bit number.
+     */
+    private static void writeShort(OutputStream out, int value)
+        throws IOException
+    {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    /**
+     * Write a little endian 32 bit number.
+     */
+    private static void writeInt(OutputStream out, int value)
+        throws IOException
+    {
+        writeShort(out, value & 0xffff);
+        writeShort(out, value >>> 16);
+    }
+}
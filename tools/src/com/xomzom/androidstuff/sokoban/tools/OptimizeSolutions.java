@@ -0,0 +1,232 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+import com.xomzom.androidstuff.sokoban.solver.OptimizerListener;
+import com.xomzom.androidstuff.sokoban.solver.SolutionOptimizer;
+import com.xomzom.androidstuff.sokoban.solver.Solver;
+
+/**
+ * Solve a range of levels, and shorten each solution with the solution
+ * optimizer, to find the best known solution lengths. The levels are
+ * worked on in parallel, one per core. Every improvement is printed as soon
+ * as it is found, so an interrupted run still shows the best results so
+ * far; when a level is done, its final solution is printed in the usual
+ * LURD notation (lower case for walking, upper case for pushing).
+ *
+ * Usage: OptimizeSolutions levelDir [firstLevel [lastLevel
+ * [timeLimitMillis [moves|pushes [threads [nodeLimit]]]]]]
+ *
+ * The time limit is for optimizing each level, and the node limit is for
+ * finding its first solution.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class OptimizeSolutions
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The LURD characters of the move directions, indexed by direction.
+     */
+    private final static char[] LURD_CHARS = { 'u', 'd', 'l', 'r' };
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Run the optimizer.
+     */
+    public static void main(String[] args)
+        throws InterruptedException, ExecutionException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: OptimizeSolutions levelDir " +
+                    "[firstLevel [lastLevel [timeLimitMillis " +
+                    "[moves|pushes [threads [nodeLimit]]]]]]");
+            System.exit(1);
+        }
+        final File levelDir = new File(args[0]);
+        int firstLevel = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+        int lastLevel =
+            (args.length > 2 ? Integer.parseInt(args[2]) : firstLevel);
+        final long timeLimit =
+            (args.length > 3 ? Long.parseLong(args[3]) : 10000);
+        final int objective = (args.length > 4 && args[4].equals("pushes") ?
+                SolutionOptimizer.OBJECTIVE_PUSHES :
+                SolutionOptimizer.OBJECTIVE_MOVES);
+        int threads = (args.length > 5 ? Integer.parseInt(args[5]) : 0);
+        final long nodeLimit =
+            (args.length > 6 ? Long.parseLong(args[6]) : 1000000);
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+        for (int level = firstLevel; level <= lastLevel; level++)
+        {
+            final int curLevel = level;
+            results.add(executor.submit(new Callable<int[]>()
+            {
+                public int[] call() throws IOException
+                {
+                    return optimizeLevel(levelDir, curLevel, timeLimit,
+                            objective, nodeLimit);
+                }
+            }));
+        }
+
+        int optimizedCount = 0;
+        long movesBefore = 0;
+        long movesAfter = 0;
+        long pushesBefore = 0;
+        long pushesAfter = 0;
+        try
+        {
+            for (Future<int[]> result : results)
+            {
+                int[] counts = result.get();
+                if (counts == null)
+                    continue;
+                optimizedCount++;
+                movesBefore += counts[0];
+                pushesBefore += counts[1];
+                movesAfter += counts[2];
+                pushesAfter += counts[3];
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        int levelCount = lastLevel - firstLevel + 1;
+        System.out.println("optimized " + optimizedCount + "/" + levelCount +
+                " levels: moves " + movesBefore + " -> " + movesAfter +
+                ", pushes " + pushesBefore + " -> " + pushesAfter);
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Solve a level, and optimize the solution.
+     *
+     * @return The moves and pushes of the first solution and of the
+     * optimized one, or null if the level wasn't solved.
+     */
+    private static int[] optimizeLevel(File levelDir, final int level,
+            long timeLimit, int objective, long nodeLimit) throws IOException
+    {
+        Board board = LevelFiles.readLevel(levelDir, level);
+        Solver solver = new Solver(board);
+        solver.setNodeLimit(nodeLimit);
+        List<Move> solution = solver.solve();
+        if (solution == null)
+        {
+            print("level " + level + ": not solved");
+            return null;
+        }
+        int pushes = solver.getStatistics().getSolutionPushes();
+        print("level " + level + ": solved, moves=" + solution.size() +
+                " pushes=" + pushes);
+
+        SolutionOptimizer optimizer = new SolutionOptimizer(board, objective);
+        optimizer.setTimeLimit(timeLimit);
+        optimizer.setListener(new OptimizerListener()
+        {
+            public void solutionImproved(List<Move> solution, int pushCount)
+            {
+                print("level " + level + ": improved, moves=" +
+                        solution.size() + " pushes=" + pushCount);
+            }
+        });
+        long startTime = System.currentTimeMillis();
+        List<Move> best = optimizer.optimize(solution);
+        long millis = System.currentTimeMillis() - startTime;
+
+        String lurd = toLurd(board, best);
+        int bestPushes = 0;
+        for (int i = 0; i < lurd.length(); i++)
+        {
+            if (Character.isUpperCase(lurd.charAt(i)))
+                bestPushes++;
+        }
+        print("level " + level + ": best moves=" + best.size() +
+                " pushes=" + bestPushes + " nodes=" + optimizer.getNodeCount() +
+                " time=" + millis + "ms solution=" + lurd);
+        return new int[] { solution.size(), pushes, best.size(), bestPushes };
+    }
+
+    /**
+     * Play a solution on the board, write it in LURD notation, and check
+     * that it solves the board. The board is restored afterwards.
+     *
+     * @return The LURD string, or "BAD SOLUTION".
+     */
+    private static String toLurd(Board board, List<Move> solution)
+    {
+        StringBuilder lurd = new StringBuilder();
+        int[] steps = new int[solution.size()];
+        int done = 0;
+        for (Move move : solution)
+        {
+            int step = board.move(move.getDir());
+            if (step == Move.STEP_ILLEGAL)
+                break;
+            steps[done++] = step;
+            char moveChar = LURD_CHARS[move.getDir()];
+            if ((step & Move.STEP_PUSH) != 0)
+                moveChar = Character.toUpperCase(moveChar);
+            lurd.append(moveChar);
+        }
+        boolean isSolved = (done == solution.size() && board.isSolved());
+        for (int i = done - 1; i >= 0; i--)
+            board.undoMove(steps[i]);
+        return (isSolved ? lurd.toString() : "BAD SOLUTION");
+    }
+
+    /**
+     * Print a line. Lines from different threads are not mixed.
+     */
+    private static synchronized void print(String line)
+    {
+        System.out.println(line);
+    }
+}
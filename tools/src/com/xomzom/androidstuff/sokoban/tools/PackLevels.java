@@ -0,0 +1,164 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.LevelCollection;
+import com.xomzom.androidstuff.sokoban.LevelPack;
+
+/**
+ * Convert level files into a single level pack, and check that every level
+ * reads back from the (memory mapped) pack exactly as it did from its
+ * source.
+ *
+ * Usage: PackLevels packFile source...
+ *
+ * A source is either a directory of level-N.txt files (read from level 1
+ * up to the first missing one), a .sok, .xsb or .slc level collection, or
+ * a single level file.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class PackLevels
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The file system block size, used to estimate the on-disk size of many
+     * small level files.
+     */
+    private final static int BLOCK_SIZE = 4096;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Build the pack.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: PackLevels packFile source...");
+            System.exit(1);
+        }
+
+        LevelPackWriter writer = new LevelPackWriter();
+        List<Board> sourceBoards = new ArrayList<Board>();
+        long sourceBytes = 0;
+        long sourceDiskBytes = 0;
+        for (int i = 1; i < args.length; i++)
+        {
+            File source = new File(args[i]);
+            List<File> files = new ArrayList<File>();
+            if (source.isDirectory())
+            {
+                for (int level = 1; ; level++)
+                {
+                    File levelFile = LevelFiles.getLevelFile(source, level);
+                    if (!levelFile.isFile())
+                        break;
+                    files.add(levelFile);
+                }
+            }
+            else
+                files.add(source);
+
+            for (File file : files)
+            {
+                sourceBytes += file.length();
+                sourceDiskBytes +=
+                    (file.length() + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+                addFile(writer, sourceBoards, file);
+            }
+        }
+
+        File packFile = new File(args[0]);
+        long packBytes = writer.write(packFile);
+        System.out.println("Packed " + writer.getLevelCount() +
+                " levels into " + packFile + ": " + packBytes + " bytes (" +
+                sourceBytes + " bytes of level text, about " +
+                sourceDiskBytes + " bytes on disk)");
+
+        LevelPack pack = LevelPack.map(packFile);
+        Board board = new Board();
+        for (int index = 0; index < pack.getLevelCount(); index++)
+        {
+            pack.readLevel(index, board);
+            if (!board.toString().equals(sourceBoards.get(index).toString()))
+            {
+                System.err.println("Level " + index + " (" +
+                        pack.getLevelTitle(index) +
+                        ") reads back differently from the pack");
+                System.exit(1);
+            }
+        }
+        System.out.println("Verified " + pack.getLevelCount() + " levels");
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Add the levels of a single source file to the pack. A single level
+     * file reads as a collection of one level, titled by its file name.
+     */
+    private static void addFile(LevelPackWriter writer,
+            List<Board> sourceBoards, File file) throws IOException
+    {
+        LevelCollection collection = LevelCollection.map(file);
+        for (int index = 0; index < collection.getLevelCount(); index++)
+        {
+            byte[] levelText = collection.decodeLevel(index);
+            Board board = new Board();
+            board.read(levelText, 0, levelText.length);
+            String title = collection.getLevelTitle(index);
+            if (title.length() == 0 && collection.getLevelCount() == 1)
+                title = file.getName();
+            writer.addLevel(title, getRows(new String(levelText, "UTF-8")));
+            sourceBoards.add(board);
+        }
+    }
+
+    /**
+     * Split level text into rows, dropping empty lines as Board.read()
+     * does.
+     */
+    private static List<String> getRows(String levelText)
+    {
+        List<String> rows = new ArrayList<String>();
+        for (String row : levelText.split("\n"))
+        {
+            if (row.length() > 0)
+                rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+import com.xomzom.androidstuff.sokoban.solver.ParallelSolver;
+import com.xomzom.androidstuff.sokoban.solver.Solver;
+import com.xomzom.androidstuff.sokoban.solver.SolverStatistics;
+
+/**
+ * Run the solver over a range of level files, and print the statistics of
+ * each run, plus a summary.
+ *
+ * Usage: SolveLevels levelDir [firstLevel [lastLevel [nodeLimit
+ * [timeLimitMillis [threads]]]]]
+ *
+ * With a thread count, the parallel solver is used instead of the
+ * sequential one.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class SolveLevels
+{
+    /**
+     * Run the solver.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SolveLevels levelDir [firstLevel " +
+                    "[lastLevel [nodeLimit [timeLimitMillis [threads]]]]]");
+            System.exit(1);
+        }
+        File levelDir = new File(args[0]);
+        int firstLevel = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+        int lastLevel =
+            (args.length > 2 ? Integer.parseInt(args[2]) : firstLevel);
+        long nodeLimit = (args.length > 3 ? Long.parseLong(args[3]) : 0);
+        long timeLimit = (args.length > 4 ? Long.parseLong(args[4]) : 0);
+        int threads = (args.length > 5 ? Integer.parseInt(args[5]) : 0);
+
+        int solvedCount = 0;
+        long totalNodes = 0;
+        long totalMillis = 0;
+        long peakMemory = 0;
+        for (int level = firstLevel; level <= lastLevel; level++)
+        {
+            Board board = LevelFiles.readLevel(levelDir, level);
+            List<Move> solution;
+            SolverStatistics stats;
+            if (threads > 0)
+            {
+                ParallelSolver solver = new ParallelSolver(board, threads);
+                solver.setNodeLimit(nodeLimit);
+                solver.setTimeLimit(timeLimit);
+                solution = solver.solve();
+                stats = solver.getStatistics();
+            }
+            else
+            {
+                Solver solver = new Solver(board);
+                solver.setNodeLimit(nodeLimit);
+                solver.setTimeLimit(timeLimit);
+                solution = solver.solve();
+                stats = solver.getStatistics();
+            }
+
+            String result;
+            if (solution != null)
+            {
+                result = (checkSolution(board, solution) ?
+                        "solved" : "BAD SOLUTION");
+                solvedCount++;
+            }
+            else
+            {
+                result = (stats.isLimitReached() ? "gave up" : "no solution");
+            }
+            System.out.println("level " + level + ": " + result + " " + stats);
+
+            totalNodes += stats.getNodeCount();
+            totalMillis += stats.getElapsedMillis();
+            peakMemory = Math.max(peakMemory, stats.getPeakMemory());
+        }
+
+        int levelCount = lastLevel - firstLevel + 1;
+        System.out.println("solved " + solvedCount + "/" + levelCount +
+                " nodes=" + totalNodes +
+                " nodes/sec=" + (totalNodes * 1000 / Math.max(totalMillis, 1)) +
+                " time=" + totalMillis + "ms" +
+                " peakMemory=" + (peakMemory / 1024) + "KB");
+    }
+
+    /**
+     * Play a solution on the board, and check that it solves it. The board
+     * is restored to its original position afterwards.
+     */
+    private static boolean checkSolution(Board board, List<Move> solution)
+    {
+        int done = 0;
+        boolean ok = true;
+        for (Move move : solution)
+        {
+            if (!board.move(move))
+            {
+                ok = false;
+                break;
+            }
+            done++;
+        }
+        ok = ok && board.isSolved();
+        for (int i = done - 1; i >= 0; i--)
+            board.undoMove(solution.get(i));
+        return ok;
+    }
+}
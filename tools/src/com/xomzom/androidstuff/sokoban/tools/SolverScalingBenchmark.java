@@ -0,0 +1,169 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.Move;
+import com.xomzom.androidstuff.sokoban.solver.ParallelSolver;
+import com.xomzom.androidstuff.sokoban.solver.Solver;
+import com.xomzom.androidstuff.sokoban.solver.SolverStatistics;
+
+/**
+ * A scaling benchmark for the parallel solver. It first runs the
+ * sequential solver over the bundled levels to find the hardest ones it
+ * can solve within a node limit (by node count), then solves those with
+ * the parallel solver at 1, 2, 4, 8, 16 and 32 threads, and reports the
+ * speedup of each thread count over the single thread run.
+ *
+ * Usage: SolverScalingBenchmark levelDir [levelCount [nodeLimit
+ * [lastLevel]]]
+ *
+ * @author Dedi Hirschfeld
+ */
+public class SolverScalingBenchmark
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The thread counts to measure.
+     */
+    private final static int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+
+    /**
+     * The number of times each measurement is repeated. The best time is
+     * reported.
+     */
+    private final static int REPEATS = 3;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Run the benchmark.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SolverScalingBenchmark levelDir " +
+                    "[levelCount [nodeLimit [lastLevel]]]");
+            System.exit(1);
+        }
+        File levelDir = new File(args[0]);
+        int levelCount = (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+        long nodeLimit = (args.length > 2 ? Long.parseLong(args[2]) : 2000000);
+        int lastLevel = (args.length > 3 ? Integer.parseInt(args[3]) : 355);
+
+        List<Integer> levels =
+            findHardestLevels(levelDir, levelCount, nodeLimit, lastLevel);
+        System.out.println("levels: " + levels + " (of " + lastLevel +
+                ", by sequential node count)");
+        System.out.println("available processors: " +
+                Runtime.getRuntime().availableProcessors());
+
+        long baseMillis = 0;
+        for (int threads : THREAD_COUNTS)
+        {
+            long bestMillis = Long.MAX_VALUE;
+            long nodes = 0;
+            int solved = 0;
+            for (int repeat = 0; repeat < REPEATS; repeat++)
+            {
+                long millis = 0;
+                nodes = 0;
+                solved = 0;
+                for (int level : levels)
+                {
+                    Board board = LevelFiles.readLevel(levelDir, level);
+                    ParallelSolver solver = new ParallelSolver(board, threads);
+                    solver.setNodeLimit(nodeLimit * 4);
+                    List<Move> solution = solver.solve();
+                    SolverStatistics stats = solver.getStatistics();
+                    millis += stats.getElapsedMillis();
+                    nodes += stats.getNodeCount();
+                    if (solution != null)
+                        solved++;
+                }
+                bestMillis = Math.min(bestMillis, millis);
+            }
+            if (threads == 1)
+                baseMillis = bestMillis;
+            System.out.println("threads=" + threads +
+                    " solved=" + solved + "/" + levels.size() +
+                    " time=" + bestMillis + "ms" +
+                    " nodes=" + nodes +
+                    " speedup=" + formatSpeedup(baseMillis, bestMillis));
+        }
+    }
+
+    /**
+     * Find the levels that take the sequential solver the most nodes to
+     * solve, among those it solves within the node limit.
+     */
+    private static List<Integer> findHardestLevels(File levelDir,
+            int levelCount, long nodeLimit, int lastLevel) throws IOException
+    {
+        final List<long[]> solved = new ArrayList<long[]>();
+        for (int level = 1; level <= lastLevel; level++)
+        {
+            Board board = LevelFiles.readLevel(levelDir, level);
+            Solver solver = new Solver(board);
+            solver.setNodeLimit(nodeLimit);
+            if (solver.solve() != null)
+            {
+                long nodes = solver.getStatistics().getNodeCount();
+                solved.add(new long[] { level, nodes });
+            }
+        }
+        Collections.sort(solved, new Comparator<long[]>()
+        {
+            public int compare(long[] first, long[] second)
+            {
+                return (first[1] > second[1] ? -1 :
+                        (first[1] < second[1] ? 1 : 0));
+            }
+        });
+
+        List<Integer> levels = new ArrayList<Integer>();
+        for (int i = 0; i < levelCount && i < solved.size(); i++)
+            levels.add(Integer.valueOf((int)solved.get(i)[0]));
+        return levels;
+    }
+
+    /**
+     * Format the speedup of a run over the base run.
+     */
+    private static String formatSpeedup(long baseMillis, long millis)
+    {
+        long hundredths = baseMillis * 100 / Math.max(millis, 1);
+        return (hundredths / 100) + "." + (hundredths % 100 < 10 ? "0" : "") +
+            (hundredths % 100) + "x";
+    }
+}
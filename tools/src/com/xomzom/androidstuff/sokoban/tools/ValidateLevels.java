@@ -0,0 +1,452 @@
+/*
+ *  sokoban - a Sokoban game for android devices
+ *  Copyright (C) 2010 Dedi Hirschfeld
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.xomzom.androidstuff.sokoban.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.xomzom.androidstuff.sokoban.Board;
+import com.xomzom.androidstuff.sokoban.LevelCollection;
+import com.xomzom.androidstuff.sokoban.LevelPack;
+
+/**
+ * Check levels in bulk, without a device. Every level is read with
+ * Board.read(), and checked for:
+ * <ul>
+ * <li>Exactly one player.</li>
+ * <li>As many boxes as targets.</li>
+ * <li>A closed outer wall - the board's inside squares are found by a flood
+ * fill from the player, which must not reach the edge of the board.</li>
+ * <li>No boxes or targets outside that fill, where the player can never
+ * reach them. Boxes already on targets are allowed there, since some levels
+ * use them as decoration in walled off pockets.</li>
+ * </ul>
+ *
+ * The levels are checked on all cores. The result of each level is printed
+ * as a JSON object on its own line, in source order, as soon as it (and all
+ * levels before it) is done. A last line sums up the run, including the
+ * throughput in levels per second.
+ *
+ * Usage: ValidateLevels [-threads count] source...
+ *
+ * A source is either a directory of level-N.txt files (read from level 1
+ * up to the first missing one), a level pack, a .sok, .xsb or .slc level
+ * collection, or a single level file. The exit status is 1 if any level is
+ * invalid.
+ *
+ * @author Dedi Hirschfeld
+ */
+public class ValidateLevels
+{
+    //
+    // Constants.
+    //
+
+    /**
+     * The number of level results that may wait to be printed, per thread.
+     * This bounds the memory used for huge collections.
+     */
+    private final static int PENDING_PER_THREAD = 64;
+
+    //
+    // Operations.
+    //
+
+    /**
+     * Validate the levels.
+     */
+    public static void main(String[] args)
+        throws IOException, InterruptedException, ExecutionException
+    {
+        int threads = 0;
+        int firstSource = 0;
+        if (args.length > 1 && args[0].equals("-threads"))
+        {
+            threads = Integer.parseInt(args[1]);
+            firstSource = 2;
+        }
+        if (args.length <= firstSource)
+        {
+            System.err.println(
+                    "Usage: ValidateLevels [-threads count] source...");
+            System.exit(1);
+        }
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+
+        long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Queue<Future<LevelResult>> pending =
+            new LinkedList<Future<LevelResult>>();
+        int maxPending = threads * PENDING_PER_THREAD;
+        int levelCount = 0;
+        int invalidCount = 0;
+        try
+        {
+            for (int i = firstSource; i < args.length; i++)
+            {
+                for (LevelCheck check : getChecks(new File(args[i])))
+                {
+                    pending.add(executor.submit(check));
+                    levelCount++;
+                    if (pending.size() >= maxPending &&
+                        !printResult(pending.remove().get()))
+                    {
+                        invalidCount++;
+                    }
+                }
+            }
+            while (!pending.isEmpty())
+            {
+                if (!printResult(pending.remove().get()))
+                    invalidCount++;
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        long millis = (System.nanoTime() - startTime) / 1000000;
+        System.out.println("{\"levels\":" + levelCount +
+                ",\"valid\":" + (levelCount - invalidCount) +
+                ",\"invalid\":" + invalidCount +
+                ",\"threads\":" + threads +
+                ",\"millis\":" + millis +
+                ",\"levelsPerSec\":" +
+                (levelCount * 1000L / Math.max(millis, 1)) + "}");
+        System.exit(invalidCount > 0 ? 1 : 0);
+    }
+
+
+    //
+    // Helpers.
+    //
+
+    /**
+     * Get the checks for all the levels of a source.
+     */
+    private static List<LevelCheck> getChecks(File source) throws IOException
+    {
+        List<LevelCheck> checks = new ArrayList<LevelCheck>();
+        if (source.isDirectory())
+        {
+            for (int level = 1; ; level++)
+            {
+                File levelFile = LevelFiles.getLevelFile(source, level);
+                if (!levelFile.isFile())
+                    break;
+                LevelCollection collection = LevelCollection.map(levelFile);
+                for (int index = 0; index < collection.getLevelCount(); index++)
+                {
+                    checks.add(new LevelCheck(levelFile.getPath(), index,
+                            collection, null));
+                }
+            }
+        }
+        else if (isLevelPack(source))
+        {
+            LevelPack pack = LevelPack.map(source);
+            for (int index = 0; index < pack.getLevelCount(); index++)
+                checks.add(new LevelCheck(source.getPath(), index, null, pack));
+        }
+        else
+        {
+            LevelCollection collection = LevelCollection.map(source);
+            for (int index = 0; index < collection.getLevelCount(); index++)
+            {
+                checks.add(new LevelCheck(source.getPath(), index,
+                        collection, null));
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Check whether a file starts with the level pack magic number.
+     */
+    private static boolean isLevelPack(File file) throws IOException
+    {
+        InputStream inStream = new FileInputStream(file);
+        try
+        {
+            int magic = 0;
+            for (int i = 0; i < 4; i++)
+            {
+                int curByte = inStream.read();
+                if (curByte < 0)
+                    return false;
+                magic |= curByte << (8 * i);
+            }
+            return magic == LevelPack.MAGIC;
+        }
+        finally
+        {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Print a level result as a JSON line.
+     *
+     * @return true if the level is valid.
+     */
+    private static boolean printResult(LevelResult result)
+    {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"source\":");
+        appendJsonString(line, result.m_source);
+        line.append(",\"level\":").append(result.m_index + 1);
+        line.append(",\"title\":");
+        appendJsonString(line, result.m_title);
+        line.append(",\"valid\":").append(result.m_errors.isEmpty());
+        line.append(",\"width\":").append(result.m_width);
+        line.append(",\"height\":").append(result.m_height);
+        line.append(",\"players\":").append(result.m_playerCount);
+        line.append(",\"boxes\":").append(result.m_boxCount);
+        line.append(",\"targets\":").append(result.m_targetCount);
+        line.append(",\"errors\":[");
+        for (int i = 0; i < result.m_errors.size(); i++)
+        {
+            if (i > 0)
+                line.append(',');
+            appendJsonString(line, result.m_errors.get(i));
+        }
+        line.append("]}");
+        System.out.println(line);
+        return result.m_errors.isEmpty();
+    }
+
+    /**
+     * Append a string to a JSON line, quoted and escaped.
+     */
+    private static void appendJsonString(StringBuilder line, String value)
+    {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char curChar = value.charAt(i);
+            if (curChar == '"' || curChar == '\\')
+                line.append('\\').append(curChar);
+            else if (curChar < ' ')
+                line.append(String.format("\\u%04x", (int)curChar));
+            else
+                line.append(curChar);
+        }
+        line.append('"');
+    }
+
+    /**
+     * The check of a single level, run on one of the pool threads. Level
+     * collections and packs only use absolute reads of their buffers, so
+     * all the checks of a source can decode levels from it concurrently.
+     */
+    private static class LevelCheck implements Callable<LevelResult>
+    {
+        /**
+         * The name of the level source.
+         */
+        private final String m_source;
+
+        /**
+         * The level index within the source.
+         */
+        private final int m_index;
+
+        /**
+         * The collection holding the level, or null if it's in a pack.
+         */
+        private final LevelCollection m_collection;
+
+        /**
+         * The pack holding the level, or null if it's in a collection.
+         */
+        private final LevelPack m_pack;
+
+        /**
+         * Create a check of the given level of a collection or pack.
+         */
+        public LevelCheck(String source, int index,
+                LevelCollection collection, LevelPack pack)
+        {
+            m_source = source;
+            m_index = index;
+            m_collection = collection;
+            m_pack = pack;
+        }
+
+        /**
+         * Read and check the level.
+         */
+        public LevelResult call()
+        {
+            LevelResult result = new LevelResult(m_source, m_index);
+            byte[] levelText;
+            try
+            {
+                if (m_pack != null)
+                {
+                    result.m_title = m_pack.getLevelTitle(m_index);
+                    levelText = m_pack.decodeLevel(m_index);
+                }
+                else
+                {
+                    result.m_title = m_collection.getLevelTitle(m_index);
+                    levelText = m_collection.decodeLevel(m_index);
+                }
+            }
+            catch (IOException e)
+            {
+                result.m_errors.add("unreadable level: " + e.getMessage());
+                return result;
+            }
+
+            for (byte curChar : levelText)
+            {
+                if (curChar == '@' || curChar == '+')
+                    result.m_playerCount++;
+            }
+            if (result.m_playerCount != 1)
+            {
+                result.m_errors.add("expected one player, found " +
+                        result.m_playerCount);
+            }
+
+            Board board = new Board();
+            board.read(levelText, 0, levelText.length);
+            result.m_width = board.getBoardWidth();
+            result.m_height = board.getBoardHeight();
+            int openX = -1;
+            int openY = -1;
+            int unreachableBoxes = 0;
+            int unreachableTargets = 0;
+            for (int y = 0; y < result.m_height; y++)
+            {
+                for (int x = 0; x < result.m_width; x++)
+                {
+                    boolean isInside = board.isInsideBoard(x, y);
+                    boolean isTarget = board.isTarget(x, y);
+                    boolean hasBox = board.hasBox(x, y);
+                    if (isTarget)
+                        result.m_targetCount++;
+                    if (hasBox)
+                        result.m_boxCount++;
+                    if (!isInside && isTarget != hasBox)
+                    {
+                        if (hasBox)
+                            unreachableBoxes++;
+                        else
+                            unreachableTargets++;
+                    }
+                    if (isInside && openX < 0 &&
+                        (x == 0 || y == 0 ||
+                         x == result.m_width - 1 || y == result.m_height - 1))
+                    {
+                        openX = x;
+                        openY = y;
+                    }
+                }
+            }
+
+            if (result.m_boxCount != result.m_targetCount)
+            {
+                result.m_errors.add(result.m_boxCount + " boxes but " +
+                        result.m_targetCount + " targets");
+            }
+            if (openX >= 0)
+            {
+                result.m_errors.add("outer wall is open at (" + openX + "," +
+                        openY + ")");
+            }
+            // Without a player, nothing is inside the board, so every box
+            // and target would count as unreachable.
+            if (result.m_playerCount > 0 && unreachableBoxes > 0)
+            {
+                result.m_errors.add(unreachableBoxes +
+                        " boxes the player can't reach");
+            }
+            if (result.m_playerCount > 0 && unreachableTargets > 0)
+            {
+                result.m_errors.add(unreachableTargets +
+                        " targets the player can't reach");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The result of checking a single level.
+     */
+    private static class LevelResult
+    {
+        /**
+         * The name of the level source.
+         */
+        final String m_source;
+
+        /**
+         * The level index within the source.
+         */
+        final int m_index;
+
+        /**
+         * The level title (may be empty).
+         */
+        String m_title = "";
+
+        /**
+         * The board size.
+         */
+        int m_width;
+        int m_height;
+
+        /**
+         * The number of players, boxes and targets in the level.
+         */
+        int m_playerCount;
+        int m_boxCount;
+        int m_targetCount;
+
+        /**
+         * The problems found. The level is valid if there are none.
+         */
+        final List<String> m_errors = new ArrayList<String>();
+
+        /**
+         * Create an empty result for the given level.
+         */
+        LevelResult(String source, int index)
+        {
+            m_source = source;
+            m_index = index;
+        }
+    }
+}